@@ -0,0 +1,78 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class AppConfigTest {
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("config-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        BackupArchive.deleteRecursively(root);
+    }
+
+    @Test
+    public void flushWritesAndReloads() {
+        Path file = root.resolve("app/config.properties");
+        AppConfig config = new AppConfig(file);
+        config.setInt("width", 800);
+        config.setString("theme", "暗色");
+        config.save();
+        config.flush();
+        assertTrue(Files.exists(file));
+
+        AppConfig reloaded = new AppConfig(file);
+        reloaded.load();
+        assertEquals(800, reloaded.getInt("width", 0));
+        assertEquals("暗色", reloaded.getString("theme", null));
+    }
+
+    @Test
+    public void failedWriteIsRetried() throws IOException {
+        Path blocker = root.resolve("app");
+        Files.write(blocker, new byte[0]);
+        Path file = blocker.resolve("config.properties");
+        AppConfig config = new AppConfig(file);
+        config.setBool("apiEnabled", true);
+        config.save();
+        config.flush();
+        assertFalse(Files.exists(file));
+
+        Files.delete(blocker);
+        config.flush();
+        AppConfig reloaded = new AppConfig(file);
+        reloaded.load();
+        assertTrue(reloaded.getBool("apiEnabled", false));
+    }
+
+    @Test
+    public void settersRaceWithFlush() throws InterruptedException {
+        final AppConfig config = new AppConfig(root.resolve("config.properties"));
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                config.save();
+                config.flush();
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 20000; i++) config.setInt("k" + (i % 500), i);
+        writer.join();
+        config.save();
+        config.flush();
+        AppConfig reloaded = new AppConfig(root.resolve("config.properties"));
+        reloaded.load();
+        assertEquals(19999, reloaded.getInt("k499", 0));
+    }
+}
@@ -0,0 +1,180 @@
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public final class BackupArchiveTest {
+    private static final BackupArchive.Listener QUIET = new BackupArchive.Listener() {
+        @Override public void progress(int done, int total) {}
+        @Override public boolean isCancelled() { return false; }
+    };
+
+    private Path root;
+    private AppPaths paths;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("backup-test");
+        paths = new AppPaths(root.resolve("app"));
+        Files.createDirectories(paths.historyDir);
+        Files.write(paths.notesFile, "[]".getBytes(StandardCharsets.UTF_8));
+        Files.write(paths.configFile, "theme=dark\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        BackupArchive.deleteRecursively(root);
+    }
+
+    @Test
+    public void roundTripsSmallAndLargeFiles() throws IOException {
+        Path dir = Files.createDirectories(paths.historyDir.resolve("note-1"));
+        Files.write(dir.resolve("empty.txt"), new byte[0]);
+        Files.write(dir.resolve("short.txt"), "短".getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) sb.append("第 ").append(i).append(" 行 line\n");
+        Files.write(dir.resolve("long.txt"), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        Map<String, byte[]> entries = writeAndRead();
+        assertEquals(5, entries.size());
+        assertArrayEquals(new byte[0], entries.get("history/note-1/empty.txt"));
+        assertEquals("短", new String(entries.get("history/note-1/short.txt"), StandardCharsets.UTF_8));
+        assertEquals(sb.toString(), new String(entries.get("history/note-1/long.txt"), StandardCharsets.UTF_8));
+        assertEquals("[]", new String(entries.get("notes.json"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keepsNonAsciiNames() throws IOException {
+        Path dir;
+        try {
+            dir = paths.historyDir.resolve("便签-笔记");
+        } catch (InvalidPathException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("版本 1.txt"), "内容".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, byte[]> entries = writeAndRead();
+        assertEquals("内容", new String(entries.get("history/便签-笔记/版本 1.txt"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void streamsEntriesLargerThanTheMemoryBudget() throws IOException {
+        Path dir = Files.createDirectories(paths.historyDir.resolve("big"));
+        Files.write(dir.resolve("empty.txt"), new byte[0]);
+        Path big = dir.resolve("big.bin");
+        long size = 8L * 1024 * 1024 + 1;
+        try (RandomAccessFile f = new RandomAccessFile(big.toFile(), "rw")) {
+            f.setLength(size);
+            f.seek(size - 1);
+            f.write('!');
+        }
+
+        Path zip = root.resolve("out/backup.zip");
+        assertTrue(new BackupArchive(paths, 1024 * 1024).write(zip, QUIET));
+        try (ZipFile zf = new ZipFile(zip.toFile(), StandardCharsets.UTF_8)) {
+            assertEquals(4, zf.size());
+            ZipEntry e = zf.getEntry("history/big/big.bin");
+            assertNotNull(e);
+            long n = 0;
+            int last = -1;
+            byte[] buf = new byte[64 * 1024];
+            try (InputStream in = zf.getInputStream(e)) {
+                int r;
+                while ((r = in.read(buf)) >= 0) {
+                    if (r > 0) last = buf[r - 1];
+                    n += r;
+                }
+            }
+            assertEquals(size, n);
+            assertEquals('!', last);
+            assertEquals(0L, zf.getEntry("history/big/empty.txt").getSize());
+        }
+        Files.delete(paths.notesFile);
+        assertTrue(new BackupArchive(paths).restore(zip, QUIET));
+        assertEquals(size, Files.size(big));
+    }
+
+    @Test
+    public void skipsFilesDeletedDuringTheRun() throws IOException {
+        Path dir = Files.createDirectories(paths.historyDir.resolve("note-1"));
+        Files.write(dir.resolve("a.txt"), "甲".getBytes(StandardCharsets.UTF_8));
+        final Path doomed = dir.resolve("b.txt");
+        Files.write(doomed, "乙".getBytes(StandardCharsets.UTF_8));
+
+        Path zip = root.resolve("out/backup.zip");
+        assertTrue(new BackupArchive(paths, 1).write(zip, new BackupArchive.Listener() {
+            @Override public void progress(int done, int total) {
+                try {
+                    Files.deleteIfExists(doomed);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            @Override public boolean isCancelled() { return false; }
+        }));
+        try (ZipFile zf = new ZipFile(zip.toFile(), StandardCharsets.UTF_8)) {
+            assertEquals(3, zf.size());
+            assertNotNull(zf.getEntry("history/note-1/a.txt"));
+        }
+    }
+
+    @Test
+    public void cancelledWriteLeavesNoFile() throws IOException {
+        Path zip = root.resolve("out/backup.zip");
+        boolean done = new BackupArchive(paths).write(zip, new BackupArchive.Listener() {
+            @Override public void progress(int done, int total) {}
+            @Override public boolean isCancelled() { return true; }
+        });
+        assertFalse(done);
+        assertFalse(Files.exists(zip));
+        assertFalse(Files.exists(zip.resolveSibling("backup.zip.tmp")));
+    }
+
+    private Map<String, byte[]> writeAndRead() throws IOException {
+        Path zip = root.resolve("out/backup.zip");
+        assertTrue(new BackupArchive(paths).write(zip, QUIET));
+        Map<String, byte[]> out = new HashMap<String, byte[]>();
+        try (ZipFile zf = new ZipFile(zip.toFile(), StandardCharsets.UTF_8)) {
+            Enumeration<? extends ZipEntry> en = zf.entries();
+            while (en.hasMoreElements()) {
+                ZipEntry e = en.nextElement();
+                try (InputStream in = zf.getInputStream(e)) {
+                    byte[] data = readAll(in);
+                    assertEquals(e.getName(), e.getSize(), data.length);
+                    out.put(e.getName(), data);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) >= 0) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class MarkdownPreviewTest {
+    @Test
+    public void splitsOnBlankLines() {
+        assertBlocks("# 标题\n\n第一段\n\n第二段\n", "# 标题\n\n", "第一段\n\n", "第二段\n");
+    }
+
+    @Test
+    public void emptyInputHasNoBlocks() {
+        assertTrue(MarkdownPreview.splitBlocks("").isEmpty());
+        assertTrue(MarkdownPreview.splitBlocks(null).isEmpty());
+    }
+
+    @Test
+    public void fencedCodeKeepsBlankLines() {
+        assertBlocks("```java\nint a;\n\nint b;\n```\n\n后文\n",
+                "```java\nint a;\n\nint b;\n```\n\n", "后文\n");
+        assertBlocks("~~~~\n~~~\n\n~~~~\nx\n", "~~~~\n~~~\n\n~~~~\nx\n");
+        assertBlocks("  ```\n\n```\n\nafter", "  ```\n\n```\n\n", "after");
+    }
+
+    @Test
+    public void unclosedFenceRunsToTheEnd() {
+        assertBlocks("```\na\n\nb\n\nc", "```\na\n\nb\n\nc");
+    }
+
+    @Test
+    public void tableStaysInOneBlock() {
+        assertBlocks("前文\n\n| a | b |\n|---|---|\n| 1 | 2 |\n| 3 | 4 |\n\n后文\n",
+                "前文\n\n", "| a | b |\n|---|---|\n| 1 | 2 |\n| 3 | 4 |\n\n", "后文\n");
+    }
+
+    @Test
+    public void tableInsideFenceAcrossBlankLine() {
+        assertBlocks("```\n| a | b |\n\n|---|---|\n```\n| c |\n",
+                "```\n| a | b |\n\n|---|---|\n```\n| c |\n");
+    }
+
+    @Test
+    public void looseListStaysInOneBlock() {
+        assertBlocks("- 一\n\n  续行\n\n- 二\n", "- 一\n\n  续行\n\n- 二\n");
+        assertBlocks("1. a\n\n2. b\n\n后文\n", "1. a\n\n2. b\n\n", "后文\n");
+    }
+
+    @Test
+    public void htmlBlocksStayWithTheirContent() {
+        assertBlocks("<!--\n注释\n\n-->\n", "<!--\n注释\n\n-->\n");
+        assertBlocks("前文\n\n<details>\n\n**粗体**\n\n</details>\n",
+                "前文\n\n<details>\n\n**粗体**\n\n</details>\n");
+    }
+
+    @Test
+    public void linkReferencesDisableSplitting() {
+        String md = "见 [文档][d]\n\n[d]: https://example.com\n";
+        assertBlocks(md, md);
+    }
+
+    private static void assertBlocks(String markdown, String... expected) {
+        List<String> blocks = MarkdownPreview.splitBlocks(markdown);
+        assertEquals(Arrays.asList(expected), blocks);
+        assertEquals(markdown, String.join("", blocks));
+    }
+}
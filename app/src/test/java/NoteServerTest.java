@@ -0,0 +1,111 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class NoteServerTest {
+    private static final String TOKEN = "0123456789abcdef0123";
+
+    private Path root;
+    private NoteStore store;
+    private NoteServer server;
+    private volatile String editing;
+    private volatile String notified;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("server-test");
+        store = new NoteStore(new AppPaths(root));
+        store.ensureLoaded();
+        server = new NoteServer(store, new NoteServer.Listener() {
+            @Override public void changed(String id) {
+                notified = store.getById(id).content;
+            }
+
+            @Override public boolean isEditing(String id) {
+                return id.equals(editing);
+            }
+        }, TOKEN);
+        server.start(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        BackupArchive.deleteRecursively(root);
+    }
+
+    @Test
+    public void updatesNote() throws IOException {
+        Note n = store.createNote();
+        assertEquals(200, request("PUT", "/notes/" + n.id, "{\"content\":\"新内容\",\"pinned\":true}"));
+        assertEquals("新内容", store.getById(n.id).content);
+        assertTrue(store.getById(n.id).pinned);
+    }
+
+    @Test
+    public void rejectsMalformedBodies() throws IOException {
+        Note n = store.createNote();
+        assertEquals(400, request("PUT", "/notes/" + n.id, "{\"content\":"));
+        assertEquals(400, request("PUT", "/notes/" + n.id, "[1,2]"));
+        assertEquals(400, request("PUT", "/notes/" + n.id, "{\"pinned\":{}}"));
+        assertEquals(400, request("PUT", "/notes/" + n.id, "{\"tags\":[[\"x\"]]}"));
+    }
+
+    @Test
+    public void refusesNoteWithUnsavedEdits() throws IOException {
+        Note n = store.createNote();
+        store.mutate(n.id, false, x -> x.setContent("原文"));
+        editing = n.id;
+        assertEquals(409, request("PUT", "/notes/" + n.id, "{\"content\":\"覆盖\"}"));
+        assertEquals(409, request("DELETE", "/notes/" + n.id, null));
+        assertEquals("原文", store.getById(n.id).content);
+        editing = null;
+        assertEquals(200, request("PUT", "/notes/" + n.id, "{\"content\":\"覆盖\"}"));
+    }
+
+    @Test
+    public void notifiesAfterTheWriteIsCommitted() throws IOException {
+        Note n = store.createNote();
+        assertEquals(200, request("PUT", "/notes/" + n.id, "{\"content\":\"已提交\"}"));
+        assertEquals("已提交", notified);
+    }
+
+    @Test
+    public void pausedServerAnswers503() throws IOException {
+        server.setPaused(true);
+        assertEquals(503, request("GET", "/notes", null));
+        assertEquals(503, request("POST", "/notes", "{\"content\":\"x\"}"));
+        server.setPaused(false);
+        assertEquals(201, request("POST", "/notes", "{\"content\":\"x\"}"));
+    }
+
+    private int request(String method, String path, String body) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.port() + path);
+        HttpURLConnection c = (HttpURLConnection) url.openConnection();
+        c.setRequestMethod(method);
+        c.setRequestProperty("Authorization", "Bearer " + TOKEN);
+        if (body != null) {
+            c.setDoOutput(true);
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = c.getResponseCode();
+        InputStream in = status >= 400 ? c.getErrorStream() : c.getInputStream();
+        if (in != null) in.close();
+        c.disconnect();
+        return status;
+    }
+}
@@ -0,0 +1,217 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class NoteStoreTest {
+    private static final String BASE = "第一行\n第二行\n第三行";
+
+    private Path root;
+    private AppPaths paths;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("store-test");
+        paths = new AppPaths(root);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        BackupArchive.deleteRecursively(root);
+    }
+
+    @Test
+    public void dirtyEditorMergesWithReloadedDiskChange() throws IOException {
+        NoteStore app = open();
+        String id = app.createNote().id;
+        app.mutate(id, false, n -> n.setContent(BASE));
+        String edited = "第一行（本机）\n第二行\n第三行";
+
+        NoteStore other = open();
+        other.mutate(id, false, n -> n.setContent("第一行\n第二行\n第三行（外部）"));
+        app.reloadFromDisk();
+
+        TextMerge.Result saved = app.saveEdit(id, BASE, edited, false);
+        assertEquals(0, saved.conflicts);
+        assertEquals("第一行（本机）\n第二行\n第三行（外部）", saved.text);
+        assertEquals(saved.text, open().getById(id).content);
+        assertTrue(historyContains(app, id, "第一行\n第二行\n第三行（外部）"));
+    }
+
+    @Test
+    public void dirtyEditorMarksConflicts() throws IOException {
+        NoteStore app = open();
+        String id = app.createNote().id;
+        app.mutate(id, false, n -> n.setContent(BASE));
+
+        open().mutate(id, false, n -> n.setContent("第一行\n外部改动\n第三行"));
+        app.reloadFromDisk();
+
+        TextMerge.Result saved = app.saveEdit(id, BASE, "第一行\n本机改动\n第三行", false);
+        assertEquals(1, saved.conflicts);
+        assertTrue(saved.text.contains("本机改动"));
+        assertTrue(saved.text.contains("外部改动"));
+        assertTrue(historyContains(app, id, "第一行\n外部改动\n第三行"));
+    }
+
+    @Test
+    public void diskChangeSeenOnlyAtSaveGoesToHistory() throws IOException {
+        NoteStore app = open();
+        String id = app.createNote().id;
+        app.mutate(id, false, n -> n.setContent(BASE));
+
+        open().mutate(id, false, n -> n.setContent("外部版本"));
+
+        app.saveEdit(id, BASE, "本机版本", false);
+        assertEquals("本机版本", open().getById(id).content);
+        assertTrue(historyContains(app, id, "外部版本"));
+    }
+
+    @Test
+    public void unchangedNoteSavesEditorText() throws IOException {
+        NoteStore app = open();
+        String id = app.createNote().id;
+        app.mutate(id, false, n -> n.setContent(BASE));
+
+        TextMerge.Result saved = app.saveEdit(id, BASE, "新内容", false);
+        assertEquals("新内容", saved.text);
+        assertEquals("新内容", open().getById(id).content);
+        assertTrue(app.listHistoryFiles(id).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void snapshotNotesAreReadOnly() throws IOException {
+        NoteStore app = open();
+        String id = app.createNote().id;
+        app.getById(id).setContent("不应生效");
+    }
+
+    @Test
+    public void mutatePublishesNewSnapshot() throws IOException {
+        NoteStore app = open();
+        String id = app.createNote().id;
+        Note before = app.getById(id);
+        Note after = app.mutate(id, false, n -> n.setTags(Arrays.asList("工作", "idea")));
+        assertEquals("", before.tagsJoined());
+        assertEquals("工作, idea", after.tagsJoined());
+        assertSame(after, app.getById(id));
+        Set<NoteStore.Bucket> active = EnumSet.of(NoteStore.Bucket.ACTIVE);
+        assertEquals(Integer.valueOf(1), app.tagCounts(active).get("工作"));
+        assertEquals(1, app.tagCount("idea", active));
+
+        app.mutate(id, false, n -> n.archived = true);
+        assertEquals(0, app.tagCount("idea", active));
+        assertEquals(1, app.tagCount("idea", EnumSet.of(NoteStore.Bucket.ARCHIVED)));
+    }
+
+    @Test
+    public void mutateAllSavesOnlyChangedNotes() throws IOException {
+        NoteStore app = open();
+        String a = app.createNote().id;
+        String b = app.createNote().id;
+        int changed = app.mutateAll(Arrays.asList(a, b, "missing"), n -> {
+            if (!n.id.equals(a)) return false;
+            n.setContent("改过");
+            return true;
+        });
+        assertEquals(1, changed);
+        NoteStore reopened = open();
+        assertEquals("改过", reopened.getById(a).content);
+        assertEquals("", reopened.getById(b).content);
+    }
+
+    @Test
+    public void readersSeeConsistentViewsWhileWriting() throws Exception {
+        final NoteStore app = open();
+        final List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) ids.add(app.createNote().id);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            try {
+                Set<NoteStore.Bucket> all = EnumSet.allOf(NoteStore.Bucket.class);
+                while (!done.get()) {
+                    NoteStore.Snapshot s = app.snapshot();
+                    assertEquals(s.notes.size(), s.sorted().size());
+                    for (Note n : app.sortedView()) n.matchesQuery("x");
+                    for (String id : ids) app.getById(id);
+                    app.tagCounts(all);
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200; i++) {
+            final int k = i;
+            app.mutate(ids.get(i % ids.size()), false, n -> n.setTags(Arrays.asList("t" + (k % 7))));
+        }
+        done.set(true);
+        reader.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+    }
+
+    @Test
+    public void unparseableDiskFileIsNotOverwritten() throws IOException {
+        NoteStore app = open();
+        String id = app.createNote().id;
+        String broken = "[{\"id\": \"x\", \"content\": ";
+        Files.write(paths.notesFile, broken.getBytes(StandardCharsets.UTF_8));
+        try {
+            app.mutate(id, false, n -> n.setContent("本机"));
+            fail("expected the parse failure to surface");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("notes.json"));
+        }
+        assertEquals(broken, new String(Files.readAllBytes(paths.notesFile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void storesInOneJvmShareTheWriterLock() throws Exception {
+        final NoteStore a = open();
+        final NoteStore b = open();
+        final String id = a.createNote().id;
+        b.reloadFromDisk();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread t = new Thread(() -> {
+            try {
+                for (int i = 0; i < 50; i++) b.createNote();
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        t.start();
+        for (int i = 0; i < 50; i++) a.mutate(id, false, n -> n.setTags(Arrays.asList("a")));
+        t.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+        assertEquals(52, open().getAll().size());
+    }
+
+    private NoteStore open() throws IOException {
+        NoteStore store = new NoteStore(paths);
+        store.ensureLoaded();
+        return store;
+    }
+
+    private static boolean historyContains(NoteStore store, String id, String text) throws IOException {
+        List<String> contents = new ArrayList<String>();
+        for (Path p : store.listHistoryFiles(id)) contents.add(store.readHistoryFile(p));
+        return contents.contains(text);
+    }
+}
@@ -0,0 +1,153 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class SyncEngineTest {
+    private static final String BASE = "第一行\n第二行\n第三行";
+
+    private Path root;
+    private Path syncDir;
+    private NoteStore a;
+    private NoteStore b;
+    private SyncEngine syncA;
+    private SyncEngine syncB;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("sync-test");
+        syncDir = root.resolve("shared");
+        AppPaths pa = new AppPaths(root.resolve("a"));
+        AppPaths pb = new AppPaths(root.resolve("b"));
+        a = new NoteStore(pa);
+        a.ensureLoaded();
+        b = new NoteStore(pb);
+        b.ensureLoaded();
+        syncA = new SyncEngine(pa, a, syncDir);
+        syncB = new SyncEngine(pb, b, syncDir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        BackupArchive.deleteRecursively(root);
+    }
+
+    @Test
+    public void newNoteReachesOtherDevice() throws IOException {
+        String id = shared();
+        assertEquals(BASE, b.getById(id).content);
+        SyncEngine.Report again = syncB.sync();
+        assertEquals(0, again.pulled);
+        assertEquals(0, again.pushed);
+    }
+
+    @Test
+    public void concurrentEditsMerge() throws IOException {
+        String id = shared();
+        a.mutate(id, false, n -> n.setContent("第一行（A）\n第二行\n第三行"));
+        b.mutate(id, false, n -> n.setContent("第一行\n第二行\n第三行（B）"));
+
+        syncA.sync();
+        SyncEngine.Report r = syncB.sync();
+        assertEquals(1, r.merged);
+        assertEquals(0, r.conflicts);
+        syncA.sync();
+
+        String expected = "第一行（A）\n第二行\n第三行（B）";
+        assertEquals(expected, a.getById(id).content);
+        assertEquals(expected, b.getById(id).content);
+    }
+
+    @Test
+    public void conflictingEditsAreMarked() throws IOException {
+        String id = shared();
+        a.mutate(id, false, n -> n.setContent("第一行\nA 的改动\n第三行"));
+        b.mutate(id, false, n -> n.setContent("第一行\nB 的改动\n第三行"));
+
+        syncA.sync();
+        SyncEngine.Report r = syncB.sync();
+        assertEquals(1, r.conflicts);
+        syncA.sync();
+
+        String merged = b.getById(id).content;
+        assertTrue(merged.contains("<<<<<<< 本机"));
+        assertTrue(merged.contains("A 的改动"));
+        assertTrue(merged.contains("B 的改动"));
+        assertEquals(merged, a.getById(id).content);
+    }
+
+    @Test
+    public void editWinsOverConcurrentDelete() throws IOException {
+        String id = shared();
+        a.deletePermanently(id);
+        b.mutate(id, false, n -> n.setContent("B 还在编辑"));
+
+        syncA.sync();
+        syncB.sync();
+        assertEquals("B 还在编辑", b.getById(id).content);
+        syncA.sync();
+        assertNotNull(a.getById(id));
+        assertEquals("B 还在编辑", a.getById(id).content);
+    }
+
+    @Test
+    public void deleteReachesOtherDevice() throws IOException {
+        String id = shared();
+        a.deletePermanently(id);
+        syncA.sync();
+        syncB.sync();
+        assertNull(b.getById(id));
+    }
+
+    @Test
+    public void editSavedAfterPrepareIsMerged() throws IOException {
+        String id = shared();
+        b.mutate(id, false, n -> n.setContent("第一行\n第二行\n第三行（B）"));
+        syncB.sync();
+
+        SyncEngine.Plan plan = syncA.prepare();
+        a.saveEdit(id, BASE, "第一行（A）\n第二行\n第三行", false);
+        syncA.apply(plan, Runnable::run);
+        syncB.sync();
+
+        String expected = "第一行（A）\n第二行\n第三行（B）";
+        assertEquals(expected, a.getById(id).content);
+        assertEquals(expected, b.getById(id).content);
+    }
+
+    @Test
+    public void editFlushedBeforeStoreUpdateIsRebased() throws IOException {
+        final String id = shared();
+        b.mutate(id, false, n -> n.setContent("第一行\n第二行\n第三行（B）"));
+        syncB.sync();
+
+        syncA.apply(syncA.prepare(), r -> {
+            try {
+                a.saveEdit(id, BASE, "第一行（A）\n第二行\n第三行", false);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            r.run();
+        });
+        assertEquals("第一行（A）\n第二行\n第三行（B）", a.getById(id).content);
+        syncA.sync();
+        syncB.sync();
+        assertEquals("第一行（A）\n第二行\n第三行（B）", b.getById(id).content);
+    }
+
+    private String shared() throws IOException {
+        String id = a.createNote().id;
+        a.mutate(id, false, n -> n.setContent(BASE));
+        syncA.sync();
+        syncB.sync();
+        return id;
+    }
+}
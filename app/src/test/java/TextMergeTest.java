@@ -0,0 +1,58 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class TextMergeTest {
+    private static final String BASE = "a\nb\nc\nd\ne";
+
+    @Test
+    public void trivialCases() {
+        assertMerged("x", 0, TextMerge.merge(BASE, "x", "x", "本机", "外部"));
+        assertMerged("x", 0, TextMerge.merge(BASE, BASE, "x", "本机", "外部"));
+        assertMerged("x", 0, TextMerge.merge(BASE, "x", BASE, "本机", "外部"));
+    }
+
+    @Test
+    public void mergesSeparateEdits() {
+        assertMerged("A\nb\nc\nd\nE", 0, TextMerge.merge(BASE, "A\nb\nc\nd\ne", "a\nb\nc\nd\nE", "本机", "外部"));
+    }
+
+    @Test
+    public void mergesInsertAndDelete() {
+        assertMerged("a\nnew\nb\nc\ne", 0, TextMerge.merge(BASE, "a\nnew\nb\nc\nd\ne", "a\nb\nc\ne", "本机", "外部"));
+    }
+
+    @Test
+    public void identicalChangesDoNotConflict() {
+        assertMerged("a\nB\nc\nd\nX", 0, TextMerge.merge(BASE, "a\nB\nc\nd\ne", "a\nB\nc\nd\nX", "本机", "外部"));
+    }
+
+    @Test
+    public void marksConflicts() {
+        TextMerge.Result r = TextMerge.merge(BASE, "a\nmine\nc\nd\ne", "a\ntheirs\nc\nd\ne", "本机", "外部");
+        assertMerged("a\n<<<<<<< 本机\nmine\n=======\ntheirs\n>>>>>>> 外部\nc\nd\ne", 1, r);
+    }
+
+    @Test
+    public void deleteAgainstEditConflicts() {
+        TextMerge.Result r = TextMerge.merge(BASE, "a\nc\nd\ne", "a\nB\nc\nd\ne", "本机", "外部");
+        assertMerged("a\n<<<<<<< 本机\n=======\nB\n>>>>>>> 外部\nc\nd\ne", 1, r);
+    }
+
+    @Test
+    public void insertsAtSamePositionConflict() {
+        TextMerge.Result r = TextMerge.merge("a\nb", "a\nx\nb", "a\ny\nb", "本机", "外部");
+        assertEquals(1, r.conflicts);
+    }
+
+    @Test
+    public void emptyBaseWithBothSidesConflicts() {
+        TextMerge.Result r = TextMerge.merge("", "mine", "theirs", "本机", "外部");
+        assertMerged("<<<<<<< 本机\nmine\n=======\ntheirs\n>>>>>>> 外部", 1, r);
+    }
+
+    private static void assertMerged(String text, int conflicts, TextMerge.Result r) {
+        assertEquals(text, r.text);
+        assertEquals(conflicts, r.conflicts);
+    }
+}
@@ -0,0 +1,79 @@
+import org.junit.Test;
+
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public final class TextStatsTest {
+    private static final String[] PIECES = {
+            "会议纪要", "release notes", "\n", "\n\n", "a\nb\nc", "待办：\n- 发布\n- 回顾", "  ", "，", "x", "\r\n", "word\n中文"
+    };
+
+    @Test
+    public void multiLineInsertsAndRemovesMatchRecount() throws BadLocationException {
+        JTextArea area = new JTextArea("第一行 first line\n第二行\n\nlast");
+        TextStats stats = new TextStats();
+        stats.attach(area, () -> {});
+        assertMatches(area, stats);
+
+        area.getDocument().insertString(5, "插入\n跨行 text\nmore", null);
+        assertMatches(area, stats);
+        area.getDocument().remove(3, 20);
+        assertMatches(area, stats);
+        area.getDocument().insertString(area.getDocument().getLength(), "\n尾部\n", null);
+        assertMatches(area, stats);
+        area.getDocument().remove(0, area.getDocument().getLength());
+        assertMatches(area, stats);
+        assertEquals(0, stats.words());
+        assertEquals(0, stats.chars());
+    }
+
+    @Test
+    public void joiningLinesMergesWords() throws BadLocationException {
+        JTextArea area = new JTextArea("abc\ndef");
+        TextStats stats = new TextStats();
+        stats.attach(area, () -> {});
+        assertEquals(2, stats.words());
+        area.getDocument().remove(3, 1);
+        assertEquals(1, stats.words());
+        assertEquals(6, stats.chars());
+        area.getDocument().insertString(3, "\n", null);
+        assertEquals(2, stats.words());
+    }
+
+    @Test
+    public void randomEditsMatchRecount() throws BadLocationException {
+        Random rnd = new Random(42L);
+        JTextArea area = new JTextArea();
+        TextStats stats = new TextStats();
+        stats.attach(area, () -> {});
+        for (int i = 0; i < 500; i++) {
+            int len = area.getDocument().getLength();
+            if (len > 0 && rnd.nextInt(3) == 0) {
+                int at = rnd.nextInt(len);
+                area.getDocument().remove(at, 1 + rnd.nextInt(Math.min(len - at, 30)));
+            } else {
+                area.getDocument().insertString(rnd.nextInt(len + 1), PIECES[rnd.nextInt(PIECES.length)], null);
+            }
+            assertMatches(area, stats);
+        }
+    }
+
+    @Test
+    public void setTextReplacesCounts() {
+        JTextArea area = new JTextArea("旧内容\nold");
+        TextStats stats = new TextStats();
+        stats.attach(area, () -> {});
+        area.setText("新\n内容 new words");
+        assertMatches(area, stats);
+    }
+
+    private static void assertMatches(JTextArea area, TextStats stats) {
+        TextStats fresh = new TextStats();
+        fresh.attach(new JTextArea(area.getText()), () -> {});
+        assertEquals(area.getText(), fresh.words(), stats.words());
+        assertEquals(area.getText(), fresh.chars(), stats.chars());
+    }
+}
@@ -0,0 +1,17 @@
+@echo off
+setlocal
+
+REM Build app + JMH benchmarks, run them, and write JSON results to benchmarks\results\<label>.json.
+REM Usage: [set BENCH_LABEL=v1.2] bench.cmd [JMH options], e.g. bench.cmd -p size=1000,100000 NoteBenchmark
+set "LABEL=%BENCH_LABEL%"
+if "%LABEL%"=="" set "LABEL=latest"
+
+call mvn -B -q -DskipTests package
+if errorlevel 1 (
+  echo Build failed.
+  exit /b 1
+)
+
+if not exist benchmarks\results mkdir benchmarks\results
+java -jar benchmarks\target\benchmarks.jar -rf json -rff "benchmarks\results\%LABEL%.json" %*
+exit /b %errorlevel%
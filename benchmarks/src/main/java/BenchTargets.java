@@ -0,0 +1,189 @@
+import javax.swing.JEditorPane;
+import javax.swing.JList;
+import javax.swing.SwingUtilities;
+import java.awt.Component;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class BenchTargets {
+    private static final String[] WORDS = {
+            "会议", "周报", "待办", "项目", "需求", "设计", "发布", "回顾", "预算", "客户",
+            "release", "build", "cache", "search", "index", "notes", "draft", "review", "merge", "sync"
+    };
+    private static final int HISTORY_NOTES = 1000;
+    private static final String[] TAGS = { "工作", "生活", "读书", "todo", "idea", "项目A", "项目B", "归档候选" };
+
+    private BenchTargets() {}
+
+    public static Callable<Object> saveAll(Path dir, int size) throws IOException {
+        final NoteStore store = new NoteStore(new AppPaths(dir));
+        store.ensureLoaded();
+        store.addAll(corpus(size, 1L));
+        return () -> {
+            store.saveAll();
+            return store;
+        };
+    }
+
+    public static Callable<Object> load(Path dir, int size) throws IOException {
+        final AppPaths paths = new AppPaths(dir);
+        NoteStore seed = new NoteStore(paths);
+        seed.ensureLoaded();
+        seed.addAll(corpus(size, 1L));
+        return () -> {
+            NoteStore store = new NoteStore(paths);
+            store.ensureLoaded();
+            return store.getAll();
+        };
+    }
+
+    public static Callable<Object> search(int size, final String query) {
+        final List<Note> notes = corpus(size, 2L);
+        return () -> {
+            int hits = 0;
+            for (int i = 0; i < notes.size(); i++) if (notes.get(i).matchesQuery(query)) hits++;
+            return hits;
+        };
+    }
+
+    public static Callable<Object> titleAndSnippet(int size) {
+        final List<Note> notes = corpus(size, 3L);
+        return () -> {
+            int chars = 0;
+            for (int i = 0; i < notes.size(); i++) {
+                Note n = notes.get(i);
+                n.markChanged();
+                chars += n.title().length() + n.snippet().length();
+            }
+            return chars;
+        };
+    }
+
+    public static Callable<Object> renderCells(int size) {
+        final List<Note> notes = corpus(size, 4L);
+        final NoteListCellRenderer renderer = new NoteListCellRenderer();
+        final JList<Note> list = new JList<Note>();
+        list.putClientProperty("query", "");
+        return () -> {
+            Component last = null;
+            for (int i = 0; i < notes.size(); i++) {
+                last = renderer.getListCellRendererComponent(list, notes.get(i), i, i == 0, false);
+            }
+            return last;
+        };
+    }
+
+    public static Callable<Object> markdownRender(int blocks) {
+        final MarkdownRenderer renderer = new MarkdownRenderer();
+        final String markdown = markdown(blocks, 5L);
+        return () -> renderer.render(markdown);
+    }
+
+    public static Callable<Object> previewRender(int blocks) {
+        final MarkdownPreview preview = new MarkdownPreview();
+        final JEditorPane pane = new JEditorPane();
+        final String markdown = markdown(blocks, 6L);
+        final AtomicReference<CountDownLatch> pending = new AtomicReference<CountDownLatch>();
+        pane.addPropertyChangeListener("document", e -> {
+            CountDownLatch l = pending.get();
+            if (l != null) l.countDown();
+        });
+        final int[] edit = { 0 };
+        return () -> {
+            CountDownLatch swapped = new CountDownLatch(1);
+            pending.set(swapped);
+            String text = markdown + "\n\n编辑 " + (edit[0]++) + "\n";
+            SwingUtilities.invokeAndWait(() -> preview.renderAsync(pane, text, new Object()));
+            if (!swapped.await(30, TimeUnit.SECONDS)) throw new IllegalStateException("preview did not render");
+            return pane.getDocument();
+        };
+    }
+
+    // Every note in the store counts toward size, but only the first HISTORY_NOTES get a full history to trim;
+    // seeding 50 files for each of 100000 notes would take longer than the benchmark itself.
+    public static Callable<Object> historyWrite(Path dir, int size) throws IOException {
+        final AppPaths paths = new AppPaths(dir);
+        final NoteStore store = new NoteStore(paths);
+        store.ensureLoaded();
+        List<Note> all = corpus(size, 7L);
+        store.addAll(all);
+        final List<Note> batch = all.subList(0, Math.min(size, HISTORY_NOTES));
+        for (Note n : batch) {
+            Path h = paths.historyDir.resolve(n.id);
+            Files.createDirectories(h);
+            for (int i = 0; i < 50; i++) {
+                Files.write(h.resolve(String.format("20000101_0000%02d.txt", i)), n.content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        final int[] next = { 0 };
+        return () -> {
+            Note n = batch.get(next[0]++ % batch.size());
+            n.setContent(n.content + "\n改动 " + next[0]);
+            store.recordHistory(n);
+            return n;
+        };
+    }
+
+    static List<Note> corpus(int size, long seed) {
+        Random rnd = new Random(seed);
+        List<Note> out = new ArrayList<Note>(size);
+        long now = 1_700_000_000_000L;
+        for (int i = 0; i < size; i++) {
+            Note n = Note.createEmpty();
+            StringBuilder sb = new StringBuilder();
+            sb.append("# ").append(words(rnd, 3 + rnd.nextInt(4))).append('\n');
+            int paragraphs = 1 + rnd.nextInt(4);
+            for (int p = 0; p < paragraphs; p++) {
+                sb.append('\n');
+                if (rnd.nextInt(3) == 0) sb.append("- [ ] ").append(words(rnd, 4)).append("\n- ").append(words(rnd, 5)).append('\n');
+                else sb.append(words(rnd, 20 + rnd.nextInt(40))).append('\n');
+            }
+            n.setContent(sb.toString());
+            List<String> tags = new ArrayList<String>();
+            for (int t = rnd.nextInt(3); t > 0; t--) {
+                String tag = TAGS[rnd.nextInt(TAGS.length)];
+                if (!tags.contains(tag)) tags.add(tag);
+            }
+            n.setTags(tags);
+            n.pinned = rnd.nextInt(20) == 0;
+            n.archived = rnd.nextInt(10) == 0;
+            n.createdAt = now - rnd.nextInt(1_000_000_000);
+            n.updatedAt = n.createdAt + rnd.nextInt(100_000_000);
+            out.add(n);
+        }
+        return out;
+    }
+
+    static String markdown(int blocks, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < blocks; i++) {
+            switch (i % 5) {
+                case 0: sb.append("## ").append(words(rnd, 4)).append("\n\n"); break;
+                case 1: sb.append(words(rnd, 40)).append(" **").append(words(rnd, 2)).append("** `code`\n\n"); break;
+                case 2: sb.append("- ").append(words(rnd, 5)).append("\n- ~~").append(words(rnd, 3)).append("~~\n\n"); break;
+                case 3: sb.append("| a | b |\n|---|---|\n| ").append(words(rnd, 2)).append(" | ").append(words(rnd, 2)).append(" |\n\n"); break;
+                default: sb.append("```\n").append(words(rnd, 8)).append("\n```\n\n"); break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String words(Random rnd, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
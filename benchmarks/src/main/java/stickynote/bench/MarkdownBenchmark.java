@@ -0,0 +1,47 @@
+package stickynote.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MarkdownBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int blocks;
+
+    private Callable<Object> render;
+    private Callable<Object> preview;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        render = Targets.get("markdownRender", blocks);
+        preview = Targets.get("previewRender", blocks);
+    }
+
+    @Benchmark
+    public Object markdownRenderer() throws Exception {
+        return render.call();
+    }
+
+    @Benchmark
+    public Object markdownPreview() throws Exception {
+        return preview.call();
+    }
+}
@@ -0,0 +1,54 @@
+package stickynote.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class NoteBenchmark {
+    @Param({ "100", "1000", "10000", "100000" })
+    public int size;
+
+    private Callable<Object> search;
+    private Callable<Object> titleAndSnippet;
+    private Callable<Object> renderCells;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        search = Targets.get("search", size, "release");
+        titleAndSnippet = Targets.get("titleAndSnippet", size);
+        renderCells = Targets.get("renderCells", size);
+    }
+
+    @Benchmark
+    public Object matchesQuery() throws Exception {
+        return search.call();
+    }
+
+    @Benchmark
+    public Object titleAndSnippet() throws Exception {
+        return titleAndSnippet.call();
+    }
+
+    @Benchmark
+    public Object listCellRenderer() throws Exception {
+        return renderCells.call();
+    }
+}
@@ -0,0 +1,57 @@
+package stickynote.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StoreBenchmark {
+    @Param({ "100", "1000", "10000", "100000" })
+    public int size;
+
+    private Path dir;
+    private Callable<Object> save;
+    private Callable<Object> load;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("bench-store");
+        save = Targets.get("saveAll", dir.resolve("save"), size);
+        load = Targets.get("load", dir.resolve("load"), size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Targets.delete(dir);
+    }
+
+    @Benchmark
+    public Object saveAll() throws Exception {
+        return save.call();
+    }
+
+    @Benchmark
+    public Object loadFromJson() throws Exception {
+        return load.call();
+    }
+}
@@ -0,0 +1,41 @@
+@echo off
+setlocal enabledelayedexpansion
+
+REM Headless command line: cli.cmd <command> [args]  (see README)
+if not exist lib mkdir lib
+
+set "MVN=https://repo1.maven.org/maven2"
+set "FLATLAF_VER=3.4.1"
+set "GSON_VER=2.11.0"
+set "COMMONMARK_VER=0.17.2"
+
+call :ensureJar "flatlaf-%FLATLAF_VER%.jar" "%MVN%/com/formdev/flatlaf/%FLATLAF_VER%/flatlaf-%FLATLAF_VER%.jar" || exit /b 1
+call :ensureJar "gson-%GSON_VER%.jar" "%MVN%/com/google/code/gson/gson/%GSON_VER%/gson-%GSON_VER%.jar" || exit /b 1
+call :ensureJar "commonmark-%COMMONMARK_VER%.jar" "%MVN%/org/commonmark/commonmark/%COMMONMARK_VER%/commonmark-%COMMONMARK_VER%.jar" || exit /b 1
+call :ensureJar "commonmark-ext-gfm-strikethrough-%COMMONMARK_VER%.jar" "%MVN%/org/commonmark/commonmark-ext-gfm-strikethrough/%COMMONMARK_VER%/commonmark-ext-gfm-strikethrough-%COMMONMARK_VER%.jar" || exit /b 1
+call :ensureJar "commonmark-ext-gfm-tables-%COMMONMARK_VER%.jar" "%MVN%/org/commonmark/commonmark-ext-gfm-tables/%COMMONMARK_VER%/commonmark-ext-gfm-tables-%COMMONMARK_VER%.jar" || exit /b 1
+
+set "CP=lib\gson-%GSON_VER%.jar;lib\commonmark-%COMMONMARK_VER%.jar;lib\commonmark-ext-gfm-strikethrough-%COMMONMARK_VER%.jar;lib\commonmark-ext-gfm-tables-%COMMONMARK_VER%.jar"
+
+REM Compile once; run.cmd (or deleting out\) rebuilds. FlatLaf is only needed to compile the UI classes.
+if not exist out\NoteCli.class (
+  if not exist out mkdir out
+  dir /s /b src\*.java > out\sources.txt
+  javac -encoding UTF-8 --release 8 -cp "%CP%;lib\flatlaf-%FLATLAF_VER%.jar" -d out @out\sources.txt 1>&2
+  if errorlevel 1 exit /b 1
+)
+
+java -Djava.awt.headless=true -Xshare:auto -XX:TieredStopAtLevel=1 -cp "out;%CP%" NoteCli %*
+exit /b %errorlevel%
+
+:ensureJar
+set "JAR=lib\%~1"
+set "URL=%~2"
+if exist "%JAR%" exit /b 0
+echo [deps] Download %~1 1>&2
+curl -f -L -s -o "%JAR%" "%URL%"
+if errorlevel 1 (
+  echo [deps] Download failed: %URL% 1>&2
+  exit /b 1
+)
+exit /b 0
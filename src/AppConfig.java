@@ -3,12 +3,29 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public final class AppConfig {
+    private static final long FLUSH_DELAY_MS = 500L;
+
     private final Properties properties = new Properties();
     private final Path file;
+    private final Object writeLock = new Object();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "config-writer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private ScheduledFuture<?> pending;
+    private boolean dirty;
 
     public AppConfig(Path file) {
         this.file = file;
@@ -21,13 +38,41 @@ public final class AppConfig {
         } catch (IOException ignored) {}
     }
 
-    public void save() {
-        try {
-            Files.createDirectories(file.getParent());
-            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-                properties.store(out, "StickyNoteApp config");
+    public synchronized void save() {
+        dirty = true;
+        if (pending != null) pending.cancel(false);
+        pending = writer.schedule(new Runnable() {
+            @Override public void run() {
+                flush();
             }
-        } catch (IOException ignored) {}
+        }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void flush() {
+        synchronized (writeLock) {
+            Properties snapshot;
+            synchronized (this) {
+                if (pending != null) {
+                    pending.cancel(false);
+                    pending = null;
+                }
+                if (!dirty) return;
+                dirty = false;
+                snapshot = (Properties) properties.clone();
+            }
+            try {
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    snapshot.store(out, "StickyNoteApp config");
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+            }
+        }
     }
 
     public int getInt(String key, int fallback) {
@@ -8,14 +8,27 @@ public final class AppPaths {
     public final Path notesFile;
     public final Path configFile;
     public final Path historyDir;
+    public final Path backupsDir;
+    public final Path firstScreenFile;
+    public final Path apiTokenFile;
+    public final Path lockFile;
+    public final Path syncStateFile;
     public final Path legacyNoteFile;
 
     public AppPaths() {
-        String home = System.getProperty("user.home");
-        appDir = Paths.get(home, APP_DIR_NAME);
+        this(Paths.get(System.getProperty("user.home"), APP_DIR_NAME));
+    }
+
+    public AppPaths(Path appDir) {
+        this.appDir = appDir;
         notesFile = appDir.resolve("notes.json");
         configFile = appDir.resolve("config.properties");
         historyDir = appDir.resolve("history");
+        backupsDir = appDir.resolve("backups");
+        firstScreenFile = appDir.resolve("first-screen.json");
+        apiTokenFile = appDir.resolve("api-token");
+        lockFile = appDir.resolve(".lock");
+        syncStateFile = appDir.resolve("sync-state.json");
         legacyNoteFile = appDir.resolve("note.txt");
     }
 }
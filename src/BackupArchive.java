@@ -0,0 +1,596 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public final class BackupArchive {
+    private static final int STORE_BELOW = 256;
+    private static final int MAX_ENTRIES = 0xffff;
+    private static final long MAX_ARCHIVE_BYTES = 0xffffffffL;
+    private static final long MIN_MEMORY_BUDGET = 16L * 1024 * 1024;
+    private static final long MAX_MEMORY_BUDGET = 256L * 1024 * 1024;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int DESCRIPTOR_FLAG = 0x0008;
+    private static final String[] CARRIED = { "config.properties", "sync-state.json", "api-token", "history", "backups" };
+
+    public interface Listener {
+        void progress(int done, int total);
+        boolean isCancelled();
+    }
+
+    private final AppPaths paths;
+    private final int threads;
+    private final int memoryBudget;
+
+    public BackupArchive(AppPaths paths) {
+        this(paths, (int) Math.min(MAX_MEMORY_BUDGET, Math.max(MIN_MEMORY_BUDGET, Runtime.getRuntime().maxMemory() / 8)));
+    }
+
+    BackupArchive(AppPaths paths, int memoryBudget) {
+        this.paths = paths;
+        this.threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.memoryBudget = memoryBudget;
+    }
+
+    public boolean write(Path zipFile, Listener listener) throws IOException {
+        Path parent = zipFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        List<Source> sources = sources();
+        Path tmp = parent.resolve(zipFile.getFileName() + ".tmp");
+        boolean done = false;
+        try {
+            if (fitsPlainZip(sources)) done = writeParallel(sources, tmp, listener);
+            else done = writeSerial(sources, tmp, listener);
+            if (done) Files.move(tmp, zipFile, StandardCopyOption.REPLACE_EXISTING);
+            return done;
+        } finally {
+            if (!done) Files.deleteIfExists(tmp);
+        }
+    }
+
+    public boolean restore(Path zipFile, Listener listener) throws IOException {
+        if (!Files.exists(zipFile)) throw new IOException("File not found: " + zipFile);
+        Path staging = stagingDir(paths);
+        deleteRecursively(staging);
+        Files.createDirectories(staging);
+        boolean done = false;
+        try {
+            long total = Math.max(1L, Files.size(zipFile));
+            byte[] buf = new byte[64 * 1024];
+            try (CountingInput counted = new CountingInput(Files.newInputStream(zipFile));
+                 ZipInputStream zis = new ZipInputStream(new BufferedInputStream(counted, 64 * 1024), StandardCharsets.UTF_8)) {
+                ZipEntry e;
+                while ((e = zis.getNextEntry()) != null) {
+                    if (listener.isCancelled()) return false;
+                    if (e.isDirectory()) continue;
+                    String name = e.getName();
+                    if (name == null) continue;
+                    if (name.startsWith("/") || name.contains("..") || name.contains(":")) continue;
+                    Path out = staging.resolve(name.replace("/", java.io.File.separator));
+                    Files.createDirectories(out.getParent());
+                    CRC32 crc = new CRC32();
+                    try (OutputStream os = Files.newOutputStream(out)) {
+                        int n;
+                        while ((n = zis.read(buf)) >= 0) {
+                            crc.update(buf, 0, n);
+                            os.write(buf, 0, n);
+                        }
+                    }
+                    if (e.getCrc() != -1 && e.getCrc() != crc.getValue()) throw new ZipException("CRC mismatch: " + name);
+                    if (e.getTime() > 0) Files.setLastModifiedTime(out, FileTime.fromMillis(e.getTime()));
+                    listener.progress((int) (counted.count * 100 / total), 100);
+                }
+            }
+            verifyNotes(staging.resolve("notes.json"));
+            swapIn(paths, staging);
+            done = true;
+            return true;
+        } finally {
+            if (!done) deleteRecursively(staging);
+        }
+    }
+
+    public static Path stagingDir(AppPaths paths) {
+        return paths.appDir.resolveSibling(paths.appDir.getFileName() + ".restore");
+    }
+
+    private static Path retiredDir(AppPaths paths) {
+        return paths.appDir.resolveSibling(paths.appDir.getFileName() + ".old");
+    }
+
+    public static void verifyNotes(Path notesFile) throws IOException {
+        if (!Files.exists(notesFile)) throw new IOException("Backup has no notes.json");
+        try (Reader r = Files.newBufferedReader(notesFile, StandardCharsets.UTF_8)) {
+            Note[] arr = new Gson().fromJson(r, Note[].class);
+            if (arr == null) throw new IOException("notes.json is empty");
+        } catch (JsonParseException e) {
+            throw new IOException("notes.json is corrupt: " + e.getMessage(), e);
+        }
+    }
+
+    public static void swapIn(AppPaths paths, Path staging) throws IOException {
+        Path live = paths.appDir;
+        Path retired = retiredDir(paths);
+        deleteRecursively(retired);
+
+        List<String> carried = new ArrayList<String>();
+        boolean swapped = false;
+        try {
+            for (String name : CARRIED) {
+                Path from = live.resolve(name);
+                Path to = staging.resolve(name);
+                if (Files.exists(from) && !Files.exists(to)) {
+                    Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+                    carried.add(name);
+                }
+            }
+            if (Files.exists(live)) Files.move(live, retired, StandardCopyOption.ATOMIC_MOVE);
+            try {
+                Files.move(staging, live, StandardCopyOption.ATOMIC_MOVE);
+                swapped = true;
+            } catch (IOException e) {
+                if (Files.exists(retired) && !Files.exists(live)) Files.move(retired, live, StandardCopyOption.ATOMIC_MOVE);
+                throw e;
+            }
+        } finally {
+            if (!swapped) {
+                for (String name : carried) {
+                    try {
+                        Files.move(staging.resolve(name), live.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+        deleteRecursively(retired);
+    }
+
+    public static void recover(AppPaths paths) {
+        Path live = paths.appDir;
+        Path retired = retiredDir(paths);
+        Path staging = stagingDir(paths);
+        try {
+            if (!Files.exists(live) && Files.exists(retired)) Files.move(retired, live, StandardCopyOption.ATOMIC_MOVE);
+            if (Files.exists(staging) && Files.exists(live)) {
+                for (String name : CARRIED) {
+                    Path from = staging.resolve(name);
+                    Path to = live.resolve(name);
+                    if (Files.exists(from) && !Files.exists(to)) Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            deleteRecursively(staging);
+            if (Files.exists(live)) deleteRecursively(retired);
+        } catch (IOException ignored) {}
+    }
+
+    public static void deleteRecursively(Path p) throws IOException {
+        if (!Files.exists(p)) return;
+        ArrayDeque<Path> stack = new ArrayDeque<Path>();
+        ArrayList<Path> all = new ArrayList<Path>();
+        stack.push(p);
+        while (!stack.isEmpty()) {
+            Path cur = stack.pop();
+            all.add(cur);
+            if (Files.isDirectory(cur)) {
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(cur)) {
+                    for (Path c : ds) stack.push(c);
+                }
+            }
+        }
+        for (int i = all.size() - 1; i >= 0; i--) {
+            try { Files.deleteIfExists(all.get(i)); } catch (IOException ignored) {}
+        }
+    }
+
+    private List<Source> sources() throws IOException {
+        List<Source> out = new ArrayList<Source>();
+        if (Files.exists(paths.notesFile)) out.add(new Source("notes.json", paths.notesFile));
+        if (Files.exists(paths.configFile)) out.add(new Source("config.properties", paths.configFile));
+        if (Files.isDirectory(paths.historyDir)) {
+            ArrayDeque<Path> stack = new ArrayDeque<Path>();
+            stack.push(paths.historyDir);
+            while (!stack.isEmpty()) {
+                Path cur = stack.pop();
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(cur)) {
+                    for (Path p : ds) {
+                        if (Files.isDirectory(p)) stack.push(p);
+                        else {
+                            String rel = paths.historyDir.relativize(p).toString().replace(java.io.File.separatorChar, '/');
+                            out.add(new Source("history/" + rel, p));
+                        }
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private static boolean fitsPlainZip(List<Source> sources) throws IOException {
+        if (sources.size() > MAX_ENTRIES) return false;
+        long total = 0L;
+        for (Source s : sources) {
+            long size;
+            try {
+                size = Files.size(s.file);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            total += size + 128 + 2L * s.nameBytes.length;
+            if (total > MAX_ARCHIVE_BYTES) return false;
+        }
+        return true;
+    }
+
+    // Entries are deflated on the pool while the raw and compressed bytes in flight stay within
+    // memoryBudget; an entry too big for the budget is streamed by the writer thread itself.
+    private boolean writeParallel(List<Source> sources, Path tmp, Listener listener) throws IOException {
+        ExecutorService pool = newPool();
+        List<Compressed> written = new ArrayList<Compressed>(sources.size());
+        try (CountingStream out = new CountingStream(new BufferedOutputStream(Files.newOutputStream(tmp), 256 * 1024))) {
+            CompletionService<Compressed> cs = new ExecutorCompletionService<Compressed>(pool);
+            Semaphore budget = new Semaphore(memoryBudget);
+            int submitted = 0;
+            int inFlight = 0;
+            int done = 0;
+            while (done < sources.size()) {
+                if (listener.isCancelled()) return false;
+                while (submitted < sources.size()) {
+                    final Source s = sources.get(submitted);
+                    long cost;
+                    try {
+                        cost = 2L * Files.size(s.file) + 1;
+                    } catch (NoSuchFileException e) {
+                        submitted++;
+                        listener.progress(++done, sources.size());
+                        continue;
+                    }
+                    if (cost > memoryBudget) {
+                        submitted++;
+                        Compressed c = stream(s, out);
+                        if (c != null) written.add(c);
+                        listener.progress(++done, sources.size());
+                        continue;
+                    }
+                    final int permits = (int) cost;
+                    if (!budget.tryAcquire(permits)) break;
+                    submitted++;
+                    inFlight++;
+                    cs.submit(new Callable<Compressed>() {
+                        @Override public Compressed call() throws IOException {
+                            try {
+                                Compressed c = compress(s);
+                                if (c != null) c.permits = permits;
+                                else budget.release(permits);
+                                return c;
+                            } catch (IOException | RuntimeException | Error e) {
+                                budget.release(permits);
+                                throw e;
+                            }
+                        }
+                    });
+                }
+                if (inFlight == 0) continue;
+                Compressed c = take(cs);
+                inFlight--;
+                if (c != null) {
+                    c.offset = out.count;
+                    writeLocalHeader(out, c);
+                    out.write(c.data, 0, c.compressedSize);
+                    c.data = null;
+                    budget.release(c.permits);
+                    written.add(c);
+                }
+                listener.progress(++done, sources.size());
+            }
+            long cdStart = out.count;
+            for (Compressed c : written) writeCentralHeader(out, c);
+            long cdSize = out.count - cdStart;
+            writeInt(out, 0x06054b50);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, written.size());
+            writeShort(out, written.size());
+            writeInt(out, (int) cdSize);
+            writeInt(out, (int) cdStart);
+            writeShort(out, 0);
+            return true;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static boolean writeSerial(List<Source> sources, Path tmp, Listener listener) throws IOException {
+        try (OutputStream out = Files.newOutputStream(tmp);
+             ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(out, 256 * 1024))) {
+            byte[] buf = new byte[64 * 1024];
+            for (int i = 0; i < sources.size(); i++) {
+                if (listener.isCancelled()) return false;
+                Source s = sources.get(i);
+                ZipEntry e = new ZipEntry(s.name);
+                InputStream in;
+                try {
+                    e.setTime(Files.getLastModifiedTime(s.file).toMillis());
+                    in = Files.newInputStream(s.file);
+                } catch (NoSuchFileException gone) {
+                    listener.progress(i + 1, sources.size());
+                    continue;
+                }
+                try {
+                    zos.putNextEntry(e);
+                    int n;
+                    while ((n = in.read(buf)) >= 0) zos.write(buf, 0, n);
+                } finally {
+                    in.close();
+                }
+                zos.closeEntry();
+                listener.progress(i + 1, sources.size());
+            }
+        }
+        return true;
+    }
+
+    // Returns null when the file was removed after sources() listed it (history trimming does that).
+    private static Compressed compress(Source s) throws IOException {
+        byte[] raw;
+        Compressed c = new Compressed(s);
+        try {
+            c.mtime = Files.getLastModifiedTime(s.file).toMillis();
+            raw = Files.readAllBytes(s.file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        c.size = raw.length;
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        c.crc = crc.getValue();
+        if (raw.length >= STORE_BELOW) {
+            Deflater d = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                d.setInput(raw);
+                d.finish();
+                byte[] buf = new byte[Math.max(64, raw.length - raw.length / 16)];
+                int n = 0;
+                while (!d.finished() && n < buf.length) n += d.deflate(buf, n, buf.length - n);
+                if (d.finished()) {
+                    c.method = ZipEntry.DEFLATED;
+                    c.data = buf;
+                    c.compressedSize = n;
+                    return c;
+                }
+            } finally {
+                d.end();
+            }
+        }
+        c.method = ZipEntry.STORED;
+        c.data = raw;
+        c.compressedSize = raw.length;
+        return c;
+    }
+
+    private static Compressed stream(Source s, CountingStream out) throws IOException {
+        Compressed c = new Compressed(s);
+        InputStream in;
+        try {
+            c.mtime = Files.getLastModifiedTime(s.file).toMillis();
+            in = Files.newInputStream(s.file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        c.method = ZipEntry.DEFLATED;
+        c.flags |= DESCRIPTOR_FLAG;
+        c.offset = out.count;
+        Deflater d = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            writeLocalHeader(out, c);
+            DeflaterOutputStream dos = new DeflaterOutputStream(out, d, 64 * 1024);
+            CRC32 crc = new CRC32();
+            byte[] buf = new byte[64 * 1024];
+            long size = 0L;
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                crc.update(buf, 0, n);
+                dos.write(buf, 0, n);
+                size += n;
+            }
+            dos.finish();
+            c.crc = crc.getValue();
+            c.size = (int) size;
+            c.compressedSize = (int) d.getBytesWritten();
+        } finally {
+            d.end();
+            in.close();
+        }
+        writeInt(out, 0x08074b50);
+        writeInt(out, (int) c.crc);
+        writeInt(out, c.compressedSize);
+        writeInt(out, c.size);
+        return c;
+    }
+
+    private static void writeLocalHeader(OutputStream out, Compressed c) throws IOException {
+        writeInt(out, 0x04034b50);
+        writeShort(out, 20);
+        writeShort(out, c.flags);
+        writeShort(out, c.method);
+        writeInt(out, dosTime(c.mtime));
+        writeInt(out, (int) c.crc);
+        writeInt(out, c.compressedSize);
+        writeInt(out, c.size);
+        writeShort(out, c.source.nameBytes.length);
+        writeShort(out, 0);
+        out.write(c.source.nameBytes);
+    }
+
+    private static void writeCentralHeader(OutputStream out, Compressed c) throws IOException {
+        writeInt(out, 0x02014b50);
+        writeShort(out, 20);
+        writeShort(out, 20);
+        writeShort(out, c.flags);
+        writeShort(out, c.method);
+        writeInt(out, dosTime(c.mtime));
+        writeInt(out, (int) c.crc);
+        writeInt(out, c.compressedSize);
+        writeInt(out, c.size);
+        writeShort(out, c.source.nameBytes.length);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeInt(out, 0);
+        writeInt(out, (int) c.offset);
+        out.write(c.source.nameBytes);
+    }
+
+    private static int dosTime(long millis) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(millis);
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980) return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25
+                | (cal.get(Calendar.MONTH) + 1) << 21
+                | cal.get(Calendar.DAY_OF_MONTH) << 16
+                | cal.get(Calendar.HOUR_OF_DAY) << 11
+                | cal.get(Calendar.MINUTE) << 5
+                | cal.get(Calendar.SECOND) >> 1;
+    }
+
+    private static void writeShort(OutputStream out, int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        writeShort(out, v & 0xffff);
+        writeShort(out, (v >>> 16) & 0xffff);
+    }
+
+    private ExecutorService newPool() {
+        final AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "backup-deflate-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static <T> T take(CompletionService<T> cs) throws IOException {
+        try {
+            return cs.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Backup interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            throw new IOException(c == null ? e.toString() : c.toString(), c);
+        }
+    }
+
+    private static final class Source {
+        final String name;
+        final byte[] nameBytes;
+        final Path file;
+
+        Source(String name, Path file) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+        }
+    }
+
+    private static final class Compressed {
+        final Source source;
+        int flags = UTF8_FLAG;
+        int permits;
+        int method;
+        long crc;
+        int size;
+        int compressedSize;
+        long mtime;
+        long offset;
+        byte[] data;
+
+        Compressed(Source source) {
+            this.source = source;
+        }
+    }
+
+    private static final class CountingInput extends FilterInputStream {
+        long count;
+
+        CountingInput(InputStream in) {
+            super(in);
+        }
+
+        @Override public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override public long skip(long n) throws IOException {
+            long k = in.skip(n);
+            count += k;
+            return k;
+        }
+    }
+
+    private static final class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public final class BackupManager {
+    private static final String MANIFEST_HEADER = "# sticky-note-backup v1";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final int MAX_MANIFESTS = 30;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final AppPaths paths;
+    private final Path objectsDir;
+    private final Path manifestsDir;
+
+    public BackupManager(AppPaths paths) {
+        this.paths = paths;
+        this.objectsDir = paths.backupsDir.resolve("objects");
+        this.manifestsDir = paths.backupsDir.resolve("manifests");
+    }
+
+    public static final class Entry {
+        public final String path;
+        public final long size;
+        public final long mtime;
+        public final String hash;
+
+        Entry(String path, long size, long mtime, String hash) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+            this.hash = hash;
+        }
+    }
+
+    public static final class Result {
+        public final String name;
+        public final int files;
+        public final int stored;
+        public final long storedBytes;
+
+        Result(String name, int files, int stored, long storedBytes) {
+            this.name = name;
+            this.files = files;
+            this.stored = stored;
+            this.storedBytes = storedBytes;
+        }
+    }
+
+    public synchronized Result backup() throws IOException {
+        Files.createDirectories(objectsDir);
+        Files.createDirectories(manifestsDir);
+
+        Map<String, Entry> previous = new HashMap<String, Entry>();
+        List<String> names = listBackups();
+        if (!names.isEmpty()) {
+            for (Entry e : readManifest(names.get(0))) previous.put(e.path, e);
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+        int stored = 0;
+        long storedBytes = 0L;
+        for (String rel : sourceFiles()) {
+            Path file = paths.appDir.resolve(rel);
+            long size;
+            long mtime;
+            try {
+                size = Files.size(file);
+                mtime = Files.getLastModifiedTime(file).toMillis();
+            } catch (IOException e) {
+                continue;
+            }
+            Entry prev = previous.get(rel);
+            if (prev != null && prev.size == size && prev.mtime == mtime && Files.exists(blobPath(prev.hash))) {
+                entries.add(prev);
+                continue;
+            }
+            Path tmp = Files.createTempFile(objectsDir, "blob", ".tmp");
+            String hash;
+            try {
+                hash = storeBlob(file, tmp);
+                Path blob = blobPath(hash);
+                if (Files.exists(blob)) {
+                    Files.deleteIfExists(tmp);
+                } else {
+                    Files.createDirectories(blob.getParent());
+                    storedBytes += Files.size(tmp);
+                    Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+                    stored++;
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            entries.add(new Entry(rel, size, mtime, hash));
+        }
+
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.ROOT).format(new Date());
+        writeManifest(name, entries);
+        prune();
+        return new Result(name, entries.size(), stored, storedBytes);
+    }
+
+    public List<String> listBackups() throws IOException {
+        List<String> out = new ArrayList<String>();
+        if (!Files.isDirectory(manifestsDir)) return out;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(manifestsDir, "*" + MANIFEST_SUFFIX)) {
+            for (Path p : ds) {
+                String fn = p.getFileName().toString();
+                out.add(fn.substring(0, fn.length() - MANIFEST_SUFFIX.length()));
+            }
+        }
+        Collections.sort(out, Collections.reverseOrder());
+        return out;
+    }
+
+    public List<Entry> readManifest(String name) throws IOException {
+        List<Entry> out = new ArrayList<Entry>();
+        try (BufferedReader r = Files.newBufferedReader(manifestsDir.resolve(name + MANIFEST_SUFFIX), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] f = line.split("\t", 4);
+                if (f.length != 4) throw new IOException("Corrupt manifest " + name + ": " + line);
+                try {
+                    out.add(new Entry(f[3], Long.parseLong(f[1]), Long.parseLong(f[2]), f[0]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Corrupt manifest " + name + ": " + line, e);
+                }
+            }
+        }
+        return out;
+    }
+
+    public synchronized void restoreTo(String name, Path target) throws IOException {
+        for (Entry e : readManifest(name)) {
+            if (e.path.startsWith("/") || e.path.contains("..") || e.path.contains(":")) continue;
+            Path out = target.resolve(e.path.replace("/", java.io.File.separator));
+            Files.createDirectories(out.getParent());
+            MessageDigest md = sha256();
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(blobPath(e.hash)));
+                 OutputStream os = Files.newOutputStream(out)) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    md.update(buf, 0, n);
+                    os.write(buf, 0, n);
+                }
+            }
+            if (!e.hash.equals(hex(md.digest()))) throw new IOException("Checksum mismatch: " + e.path);
+            if (e.mtime > 0) Files.setLastModifiedTime(out, FileTime.fromMillis(e.mtime));
+        }
+    }
+
+    private List<String> sourceFiles() throws IOException {
+        List<String> out = new ArrayList<String>();
+        if (Files.exists(paths.notesFile)) out.add("notes.json");
+        if (Files.exists(paths.configFile)) out.add("config.properties");
+        if (Files.isDirectory(paths.historyDir)) {
+            ArrayDeque<Path> stack = new ArrayDeque<Path>();
+            stack.push(paths.historyDir);
+            while (!stack.isEmpty()) {
+                Path cur = stack.pop();
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(cur)) {
+                    for (Path p : ds) {
+                        if (Files.isDirectory(p)) stack.push(p);
+                        else out.add("history/" + paths.historyDir.relativize(p).toString().replace(java.io.File.separatorChar, '/'));
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private String storeBlob(Path file, Path tmp) throws IOException {
+        MessageDigest md = sha256();
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                md.update(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+        }
+        return hex(md.digest());
+    }
+
+    private void writeManifest(String name, List<Entry> entries) throws IOException {
+        Path tmp = manifestsDir.resolve(name + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(MANIFEST_HEADER);
+            w.write('\n');
+            for (Entry e : entries) {
+                w.write(e.hash + "\t" + e.size + "\t" + e.mtime + "\t" + e.path + "\n");
+            }
+        }
+        Files.move(tmp, manifestsDir.resolve(name + MANIFEST_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void prune() throws IOException {
+        List<String> names = listBackups();
+        if (names.size() <= MAX_MANIFESTS) return;
+        for (int i = MAX_MANIFESTS; i < names.size(); i++) {
+            Files.deleteIfExists(manifestsDir.resolve(names.get(i) + MANIFEST_SUFFIX));
+        }
+        Set<String> live = new HashSet<String>();
+        for (int i = 0; i < MAX_MANIFESTS; i++) {
+            for (Entry e : readManifest(names.get(i))) live.add(e.hash);
+        }
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(objectsDir)) {
+            for (Path shard : shards) {
+                if (!Files.isDirectory(shard)) continue;
+                try (DirectoryStream<Path> blobs = Files.newDirectoryStream(shard)) {
+                    for (Path b : blobs) {
+                        String fn = b.getFileName().toString();
+                        String hash = fn.endsWith(".gz") ? fn.substring(0, fn.length() - 3) : fn;
+                        if (!live.contains(hash)) Files.deleteIfExists(b);
+                    }
+                }
+            }
+        }
+    }
+
+    private Path blobPath(String hash) {
+        return objectsDir.resolve(hash.substring(0, 2)).resolve(hash + ".gz");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public final class BulkExporter {
+    private static final int MAX_THREADS = 8;
+    private static final int MAX_NAME_CHARS = 80;
+
+    public interface Listener {
+        void progress(int done, int total);
+        boolean isCancelled();
+    }
+
+    public static final class Item {
+        final String name;
+        final String title;
+        final String content;
+        final long updatedAt;
+
+        Item(String name, String title, String content, long updatedAt) {
+            this.name = name;
+            this.title = title;
+            this.content = content;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private final MarkdownRenderer renderer;
+    private final boolean html;
+    private final int threads;
+
+    public BulkExporter(MarkdownRenderer renderer, boolean html) {
+        this.renderer = renderer;
+        this.html = html;
+        this.threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static List<Item> snapshot(List<Note> notes) {
+        List<Item> out = new ArrayList<Item>(notes.size());
+        Set<String> used = new HashSet<String>();
+        for (Note n : notes) {
+            String title = n.title();
+            String base = fileName(title);
+            String name = base;
+            int i = 2;
+            while (!used.add(name.toLowerCase(Locale.ROOT))) name = base + " (" + (i++) + ")";
+            out.add(new Item(name, title, n.content == null ? "" : n.content, n.updatedAt));
+        }
+        return out;
+    }
+
+    public int exportToDirectory(List<Item> items, final Path dir, Listener listener) throws IOException {
+        Files.createDirectories(dir);
+        ExecutorService pool = newPool();
+        try {
+            CompletionService<Void> cs = new ExecutorCompletionService<Void>(pool);
+            for (final Item it : items) {
+                cs.submit(new Callable<Void>() {
+                    @Override public Void call() throws IOException {
+                        writeFile(dir.resolve(it.name + ".md"), it.content.getBytes(StandardCharsets.UTF_8), it.updatedAt);
+                        if (html) writeFile(dir.resolve(it.name + ".html"), renderHtml(it), it.updatedAt);
+                        return null;
+                    }
+                });
+            }
+            int done = 0;
+            while (done < items.size()) {
+                if (listener.isCancelled()) break;
+                take(cs);
+                listener.progress(++done, items.size());
+            }
+            return done;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public int exportToZip(List<Item> items, Path zipFile, Listener listener) throws IOException {
+        Path parent = zipFile.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        ExecutorService pool = newPool();
+        try (OutputStream out = Files.newOutputStream(zipFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             ZipOutputStream zos = new ZipOutputStream(out)) {
+            CompletionService<Rendered> cs = new ExecutorCompletionService<Rendered>(pool);
+            int window = threads * 4;
+            int submitted = 0;
+            int done = 0;
+            while (done < items.size()) {
+                if (listener.isCancelled()) break;
+                while (submitted < items.size() && submitted - done < window) {
+                    final Item it = items.get(submitted++);
+                    cs.submit(new Callable<Rendered>() {
+                        @Override public Rendered call() {
+                            return new Rendered(it, it.content.getBytes(StandardCharsets.UTF_8), html ? renderHtml(it) : null);
+                        }
+                    });
+                }
+                Rendered r = take(cs);
+                putEntry(zos, r.item.name + ".md", r.markdown, r.item.updatedAt);
+                if (r.html != null) putEntry(zos, r.item.name + ".html", r.html, r.item.updatedAt);
+                listener.progress(++done, items.size());
+            }
+            return done;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private byte[] renderHtml(Item it) {
+        return renderer.renderPage(it.title, it.content).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ExecutorService newPool() {
+        final AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bulk-export-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static <T> T take(CompletionService<T> cs) throws IOException {
+        try {
+            return cs.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            throw new IOException(c == null ? e.toString() : c.toString(), c);
+        }
+    }
+
+    private static void writeFile(Path file, byte[] bytes, long mtime) throws IOException {
+        Files.write(file, bytes);
+        if (mtime > 0) Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+    }
+
+    private static void putEntry(ZipOutputStream zos, String name, byte[] bytes, long mtime) throws IOException {
+        ZipEntry e = new ZipEntry(name);
+        if (mtime > 0) e.setTime(mtime);
+        zos.putNextEntry(e);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    private static String fileName(String title) {
+        String s = title == null ? "" : title.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        while (s.startsWith(".")) s = s.substring(1);
+        if (s.length() > MAX_NAME_CHARS) s = s.substring(0, MAX_NAME_CHARS).trim();
+        return s.isEmpty() ? "untitled" : s;
+    }
+
+    private static final class Rendered {
+        final Item item;
+        final byte[] markdown;
+        final byte[] html;
+
+        Rendered(Item item, byte[] markdown, byte[] html) {
+            this.item = item;
+            this.markdown = markdown;
+            this.html = html;
+        }
+    }
+}
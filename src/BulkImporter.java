@@ -0,0 +1,211 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public final class BulkImporter {
+    private static final int MAX_THREADS = 8;
+    private static final long MAX_FILE_BYTES = 16L * 1024 * 1024;
+    private static final Charset FALLBACK = fallbackCharset();
+
+    public interface Listener {
+        void progress(int done, int total);
+        boolean isCancelled();
+    }
+
+    private final boolean tagsFromFolders;
+    private final int threads;
+
+    public BulkImporter(boolean tagsFromFolders) {
+        this.tagsFromFolders = tagsFromFolders;
+        this.threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static boolean isImportable(String name) {
+        String n = name.toLowerCase(Locale.ROOT);
+        return n.endsWith(".md") || n.endsWith(".markdown") || n.endsWith(".txt");
+    }
+
+    public List<Note> importDirectory(final Path root, Listener listener) throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        ArrayDeque<Path> stack = new ArrayDeque<Path>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Path cur = stack.pop();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(cur)) {
+                for (Path p : ds) {
+                    String name = p.getFileName().toString();
+                    if (name.startsWith(".")) continue;
+                    if (Files.isDirectory(p)) stack.push(p);
+                    else if (isImportable(name) && Files.size(p) <= MAX_FILE_BYTES) files.add(p);
+                }
+            }
+        }
+        Collections.sort(files);
+
+        return run(files.size(), listener, new Decoder() {
+            @Override public Note decode(int i) throws IOException {
+                Path p = files.get(i);
+                Path rel = root.relativize(p);
+                return toNote(rel.toString().replace(java.io.File.separatorChar, '/'),
+                        Files.readAllBytes(p), Files.getLastModifiedTime(p).toMillis());
+            }
+        });
+    }
+
+    public List<Note> importZip(Path zipFile, Listener listener) throws IOException {
+        try (final ZipFile zf = new ZipFile(zipFile.toFile())) {
+            final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+            Enumeration<? extends ZipEntry> en = zf.entries();
+            while (en.hasMoreElements()) {
+                ZipEntry e = en.nextElement();
+                String name = e.getName();
+                if (e.isDirectory() || name == null || name.contains("..")) continue;
+                if (name.startsWith("__MACOSX/") || baseName(name).startsWith(".")) continue;
+                if (!isImportable(name) || e.getSize() > MAX_FILE_BYTES) continue;
+                entries.add(e);
+            }
+            return run(entries.size(), listener, new Decoder() {
+                @Override public Note decode(int i) throws IOException {
+                    ZipEntry e = entries.get(i);
+                    try (InputStream in = zf.getInputStream(e)) {
+                        return toNote(e.getName(), readAll(in), e.getTime());
+                    }
+                }
+            });
+        }
+    }
+
+    private List<Note> run(int total, Listener listener, final Decoder decoder) throws IOException {
+        Note[] out = new Note[total];
+        ExecutorService pool = newPool();
+        try {
+            CompletionService<Integer> cs = new ExecutorCompletionService<Integer>(pool);
+            final Note[] slots = out;
+            for (int i = 0; i < total; i++) {
+                final int index = i;
+                cs.submit(new Callable<Integer>() {
+                    @Override public Integer call() throws IOException {
+                        slots[index] = decoder.decode(index);
+                        return index;
+                    }
+                });
+            }
+            for (int done = 0; done < total; ) {
+                if (listener.isCancelled()) return Collections.emptyList();
+                take(cs);
+                listener.progress(++done, total);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        List<Note> notes = new ArrayList<Note>(total);
+        for (Note n : out) if (n != null) notes.add(n);
+        return notes;
+    }
+
+    private Note toNote(String relPath, byte[] bytes, long mtime) {
+        Note n = Note.createEmpty();
+        n.setContent(decode(bytes));
+        if (mtime > 0) {
+            n.createdAt = mtime;
+            n.updatedAt = mtime;
+        }
+        if (tagsFromFolders) {
+            List<String> tags = new ArrayList<String>();
+            String[] parts = relPath.split("/");
+            for (int i = 0; i < parts.length - 1; i++) {
+                String t = NoteStore.normalizeTag(parts[i]);
+                if (t.length() > 0 && !tags.contains(t)) tags.add(t);
+            }
+            if (!tags.isEmpty()) n.setTags(tags);
+        }
+        return n;
+    }
+
+    private static String decode(byte[] bytes) {
+        int off = 0;
+        if (bytes.length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb && (bytes[2] & 0xff) == 0xbf) off = 3;
+        ByteBuffer buf = ByteBuffer.wrap(bytes, off, bytes.length - off);
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(buf).toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, off, bytes.length - off, FALLBACK);
+        }
+    }
+
+    private static Charset fallbackCharset() {
+        try {
+            return Charset.forName("GB18030");
+        } catch (RuntimeException e) {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) >= 0) bos.write(buf, 0, n);
+        return bos.toByteArray();
+    }
+
+    private static String baseName(String name) {
+        int i = name.lastIndexOf('/');
+        return i < 0 ? name : name.substring(i + 1);
+    }
+
+    private ExecutorService newPool() {
+        final AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bulk-import-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static <T> T take(CompletionService<T> cs) throws IOException {
+        try {
+            return cs.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            throw new IOException(c == null ? e.toString() : c.toString(), c);
+        }
+    }
+
+    private interface Decoder {
+        Note decode(int index) throws IOException;
+    }
+}
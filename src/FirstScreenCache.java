@@ -0,0 +1,80 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class FirstScreenCache {
+    private static final int MAX_ROWS = 60;
+    private static final int MAX_CONTENT_CHARS = 400;
+
+    private final Path file;
+    private final Gson gson = new Gson();
+
+    public FirstScreenCache(AppPaths paths) {
+        this.file = paths.firstScreenFile;
+    }
+
+    public List<Note> read() {
+        if (!Files.exists(file)) return Collections.emptyList();
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Note[] arr = gson.fromJson(r, Note[].class);
+            if (arr == null) return Collections.emptyList();
+            List<Note> out = new ArrayList<Note>(arr.length);
+            for (Note n : arr) {
+                if (n == null || n.id == null) continue;
+                if (n.tags == null) n.tags = new ArrayList<String>();
+                out.add(n);
+            }
+            return out;
+        } catch (IOException | JsonParseException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    public static List<Note> snapshot(List<Note> sorted) {
+        List<Note> out = new ArrayList<Note>(MAX_ROWS);
+        for (Note n : sorted) {
+            if (out.size() >= MAX_ROWS) break;
+            if (n.deleted || n.archived) continue;
+            Note c = new Note();
+            c.id = n.id;
+            c.content = truncate(n.content);
+            c.tags = n.tags == null ? new ArrayList<String>() : new ArrayList<String>(n.tags);
+            c.pinned = n.pinned;
+            c.createdAt = n.createdAt;
+            c.updatedAt = n.updatedAt;
+            out.add(c);
+        }
+        return out;
+    }
+
+    public void write(List<Note> rows) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                gson.toJson(rows.toArray(new Note[0]), w);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+        }
+    }
+
+    private static String truncate(String s) {
+        if (s == null) return "";
+        if (s.length() <= MAX_CONTENT_CHARS) return s;
+        int end = MAX_CONTENT_CHARS;
+        if (Character.isHighSurrogate(s.charAt(end - 1))) end--;
+        return s.substring(0, end);
+    }
+}
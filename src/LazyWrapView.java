@@ -0,0 +1,350 @@
+import com.formdev.flatlaf.ui.FlatTextAreaUI;
+
+import javax.swing.JComponent;
+import javax.swing.JTextArea;
+import javax.swing.SizeRequirements;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import javax.swing.text.WrappedPlainView;
+import java.awt.Component;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Arrays;
+
+// WrappedPlainView re-breaks every paragraph on each width change. This one only breaks the paragraphs
+// near the viewport and estimates the rest from a sample of their text until they scroll into view.
+public final class LazyWrapView extends WrappedPlainView {
+    public static final String CLIENT_PROPERTY = "StickyNote.lazyWrap";
+    private static final int SAMPLE_CHARS = 128;
+
+    private FontMetrics fm;
+
+    public LazyWrapView(Element elem, boolean wordWrap) {
+        super(elem, wordWrap);
+    }
+
+    public static final class UI extends FlatTextAreaUI {
+        @Override public View create(Element elem) {
+            JTextComponent c = getComponent();
+            if (c instanceof JTextArea && ((JTextArea) c).getLineWrap()
+                    && Boolean.TRUE.equals(c.getClientProperty(CLIENT_PROPERTY))
+                    && !Boolean.TRUE.equals(elem.getDocument().getProperty("i18n"))) {
+                return new LazyWrapView(elem, ((JTextArea) c).getWrapStyleWord());
+            }
+            return super.create(elem);
+        }
+    }
+
+    @Override protected void loadChildren(ViewFactory f) {
+        Element e = getElement();
+        View[] added = new View[e.getElementCount()];
+        for (int i = 0; i < added.length; i++) added[i] = new Line(e.getElement(i));
+        replace(0, 0, added);
+    }
+
+    @Override public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateChildren(e, a);
+        Rectangle alloc = a != null && isAllocationValid() ? getInsideAllocation(a) : null;
+        View v = getViewAtPosition(e.getOffset(), alloc);
+        if (v != null) v.insertUpdate(e, alloc, f);
+    }
+
+    @Override public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateChildren(e, a);
+        Rectangle alloc = a != null && isAllocationValid() ? getInsideAllocation(a) : null;
+        View v = getViewAtPosition(e.getOffset(), alloc);
+        if (v != null) v.removeUpdate(e, alloc, f);
+    }
+
+    @Override public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateChildren(e, a);
+    }
+
+    private void updateChildren(DocumentEvent e, Shape a) {
+        DocumentEvent.ElementChange ec = e.getChange(getElement());
+        if (ec == null) return;
+        Element[] added = ec.getChildrenAdded();
+        View[] views = new View[added.length];
+        for (int i = 0; i < added.length; i++) views[i] = new Line(added[i]);
+        replace(ec.getIndex(), ec.getChildrenRemoved().length, views);
+        if (a != null) {
+            preferenceChanged(null, true, true);
+            getContainer().repaint();
+        }
+    }
+
+    @Override public void setSize(float width, float height) {
+        updateFontMetrics();
+        super.setSize(width, height);
+    }
+
+    @Override public float getPreferredSpan(int axis) {
+        updateFontMetrics();
+        return super.getPreferredSpan(axis);
+    }
+
+    @Override public void paint(Graphics g, Shape a) {
+        updateFontMetrics();
+        if (!viewportMeasured()) {
+            // Scrolled onto estimated paragraphs: lay out again so they are drawn at their real height.
+            preferenceChanged(null, false, true);
+            Rectangle r = a.getBounds();
+            setSize(r.width, r.height);
+        }
+        super.paint(g, a);
+    }
+
+    @Override protected SizeRequirements calculateMajorAxisRequirements(int axis, SizeRequirements r) {
+        if (r == null) r = new SizeRequirements();
+        int lh = lineHeight();
+        long total = 0L;
+        for (int i = 0; i < getViewCount(); i++) total += (long) line(i).knownRows() * lh;
+        r.minimum = r.preferred = r.maximum = (int) Math.min(total, Integer.MAX_VALUE);
+        r.alignment = 0.5f;
+        return r;
+    }
+
+    @Override protected void layoutMajorAxis(int targetSpan, int axis, int[] offsets, int[] spans) {
+        int lh = lineHeight();
+        int[] band = viewportBand();
+        long y = 0L;
+        boolean changed = false;
+        for (int i = 0; i < offsets.length; i++) {
+            Line l = line(i);
+            int rows = l.knownRows();
+            if (!l.measured() && y < band[1] && y + (long) rows * lh > band[0]) {
+                int exact = l.measure();
+                changed |= exact != rows;
+                rows = exact;
+            }
+            offsets[i] = (int) Math.min(y, Integer.MAX_VALUE);
+            spans[i] = (int) Math.min((long) rows * lh, Integer.MAX_VALUE);
+            y += spans[i];
+        }
+        if (changed) preferenceChanged(null, false, true);
+    }
+
+    private boolean viewportMeasured() {
+        int[] band = viewportBand();
+        for (int i = 0; i < getViewCount(); i++) {
+            int top = getOffset(Y_AXIS, i);
+            if (top >= band[1]) break;
+            if (top + getSpan(Y_AXIS, i) > band[0] && !line(i).measured()) return false;
+        }
+        return true;
+    }
+
+    // The visible rows plus one screen above and below, in this view's coordinates.
+    private int[] viewportBand() {
+        Component c = getContainer();
+        if (!(c instanceof JComponent)) return new int[] { 0, 0 };
+        Rectangle vis = ((JComponent) c).getVisibleRect();
+        Insets in = ((JComponent) c).getInsets();
+        int top = vis.y - in.top - getTopInset();
+        return new int[] { top - vis.height, top + 2 * vis.height };
+    }
+
+    private void updateFontMetrics() {
+        Component c = getContainer();
+        if (c != null) fm = c.getFontMetrics(c.getFont());
+    }
+
+    private int lineHeight() {
+        return fm == null ? 16 : Math.max(1, fm.getHeight());
+    }
+
+    private Line line(int i) {
+        return (Line) getView(i);
+    }
+
+    private final class Line extends View {
+        private int[] ends;
+        private int rows;
+        private int endsWidth = -1;
+        private int estimate;
+        private int estimateWidth = -1;
+
+        Line(Element elem) {
+            super(elem);
+        }
+
+        boolean measured() {
+            return ends != null && endsWidth == getWidth();
+        }
+
+        int knownRows() {
+            return measured() ? rows : estimateRows();
+        }
+
+        int measure() {
+            if (!measured()) breakRows(getStartOffset());
+            return rows;
+        }
+
+        private int estimateRows() {
+            int width = getWidth();
+            if (width <= 0 || width == Integer.MAX_VALUE || fm == null) return 1;
+            if (estimateWidth == width) return estimate;
+            int start = getStartOffset();
+            int len = getEndOffset() - start;
+            if (ends != null && endsWidth > 0) {
+                estimate = (int) Math.max(1L, ((long) rows * endsWidth + width - 1) / width);
+            } else {
+                Segment s = new Segment();
+                try {
+                    getDocument().getText(start, Math.min(len, SAMPLE_CHARS), s);
+                } catch (BadLocationException e) {
+                    return 1;
+                }
+                double perChar = s.count == 0 ? 0 : (double) fm.charsWidth(s.array, s.offset, s.count) / s.count;
+                estimate = (int) Math.max(1L, (long) Math.ceil(perChar * len / width));
+            }
+            estimateWidth = width;
+            return estimate;
+        }
+
+        // Same scheme as WrappedPlainView: rows before the edited one are kept, the rest are broken again.
+        private void breakRows(int fromOffset) {
+            int width = getWidth();
+            int start = getStartOffset();
+            int end = getEndOffset();
+            int row = 0;
+            int[] out;
+            if (measured() && rows > 1) {
+                row = Math.max(0, rowAt(fromOffset - start) - 1);
+                out = ends;
+            } else {
+                out = new int[4];
+            }
+            int p0 = row == 0 ? start : start + out[row - 1];
+            int n = row;
+            while (p0 < end) {
+                int p = calculateBreakPosition(p0, end);
+                p0 = p == p0 ? p + 1 : p;
+                if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                out[n++] = p0 - start;
+            }
+            if (n == 0) out[n++] = end - start;
+            ends = out;
+            rows = n;
+            endsWidth = width;
+            estimateWidth = -1;
+        }
+
+        private int rowAt(int offset) {
+            int lo = 0;
+            int hi = rows - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ends[mid] > offset) hi = mid;
+                else lo = mid + 1;
+            }
+            return lo;
+        }
+
+        private int rowStart(int row) {
+            return getStartOffset() + (row == 0 ? 0 : ends[row - 1]);
+        }
+
+        @Override public float getPreferredSpan(int axis) {
+            if (axis == X_AXIS) {
+                int width = getWidth();
+                return width == Integer.MAX_VALUE ? 100f : width;
+            }
+            return (float) knownRows() * lineHeight();
+        }
+
+        @Override public void paint(Graphics g, Shape a) {
+            measure();
+            Rectangle r = a.getBounds();
+            int lh = lineHeight();
+            int end = getEndOffset();
+            JTextComponent host = (JTextComponent) getContainer();
+            Highlighter h = host.getHighlighter();
+            LayeredHighlighter dh = h instanceof LayeredHighlighter ? (LayeredHighlighter) h : null;
+            Rectangle clip = g.getClipBounds();
+            int first = clip == null ? 0 : Math.max(0, (clip.y - r.y) / lh);
+            int last = clip == null ? rows - 1 : Math.min(rows - 1, (clip.y + clip.height - r.y) / lh);
+            for (int i = first; i <= last; i++) {
+                int p0 = rowStart(i);
+                int p1 = getStartOffset() + ends[i];
+                if (dh != null) dh.paintLayeredHighlights(g, p0, p1 == end ? p1 - 1 : p1, a, host, this);
+                drawLine(p0, p1, g, r.x, r.y + i * lh + fm.getAscent());
+            }
+        }
+
+        @Override public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+            if (pos < getStartOffset() || pos > getEndOffset()) throw new BadLocationException("Position out of range", pos);
+            measure();
+            Rectangle alloc = a.getBounds();
+            alloc.height = lineHeight();
+            alloc.width = 1;
+            int test = b == Position.Bias.Forward ? pos : Math.max(getStartOffset(), pos - 1);
+            int row = rowAt(test - getStartOffset());
+            int p0 = rowStart(row);
+            alloc.y += row * alloc.height;
+            if (pos > p0) {
+                Segment s = new Segment();
+                getDocument().getText(p0, pos - p0, s);
+                alloc.x += Utilities.getTabbedTextWidth(s, fm, alloc.x, LazyWrapView.this, p0);
+            }
+            return alloc;
+        }
+
+        @Override public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+            bias[0] = Position.Bias.Forward;
+            measure();
+            Rectangle alloc = a.getBounds();
+            int x = (int) fx;
+            int y = (int) fy;
+            if (y < alloc.y) return getStartOffset();
+            if (y > alloc.y + alloc.height) return getEndOffset() - 1;
+            int row = (y - alloc.y) / lineHeight();
+            if (row >= rows) return getEndOffset() - 1;
+            int p0 = rowStart(row);
+            int p1 = getStartOffset() + ends[row];
+            if (x < alloc.x) return p0;
+            if (x > alloc.x + alloc.width) return p1 - 1;
+            Segment s = new Segment();
+            try {
+                getDocument().getText(p0, p1 - p0, s);
+            } catch (BadLocationException e) {
+                return p0;
+            }
+            int n = Utilities.getTabbedTextOffset(s, fm, alloc.x, x, LazyWrapView.this, p0, false);
+            return Math.min(p0 + n, p1 - 1);
+        }
+
+        @Override public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            update(e, a);
+        }
+
+        @Override public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            update(e, a);
+        }
+
+        private void update(DocumentEvent e, Shape a) {
+            int old = knownRows();
+            breakRows(e.getOffset());
+            if (old != rows) {
+                LazyWrapView.this.preferenceChanged(this, false, true);
+                getContainer().repaint();
+            } else if (a != null) {
+                Rectangle r = a.getBounds();
+                getContainer().repaint(r.x, r.y, r.width, r.height);
+            }
+        }
+    }
+}
@@ -1,47 +1,401 @@
-import org.commonmark.Extension;
-import org.commonmark.ext.gfm.strikethrough.StrikethroughExtension;
 import org.commonmark.ext.gfm.tables.TablesExtension;
+import org.commonmark.node.HtmlBlock;
 import org.commonmark.node.Node;
+import org.commonmark.node.SourceSpan;
+import org.commonmark.parser.IncludeSourceSpans;
 import org.commonmark.parser.Parser;
-import org.commonmark.renderer.html.HtmlRenderer;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTMLDocument;
 import javax.swing.text.html.HTMLEditorKit;
 import javax.swing.text.html.StyleSheet;
+import javax.swing.undo.UndoableEdit;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 public final class MarkdownPreview {
-    private final Parser parser;
-    private final HtmlRenderer renderer;
+    private static final String STATE_KEY = "markdownPreview.state";
+    private static final String END_ID = "md-end";
+    private static final long BLOCK_CACHE_BYTES = 8L * 1024 * 1024;
+    private static final int MAX_PATCHED_BLOCKS = 64;
+    private static final long RENDER_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final int LAZY_BLOCK_THRESHOLD = 120;
+    private static final int LAZY_INITIAL_BLOCKS = 40;
+    private static final int LAZY_MARGIN_BLOCKS = 8;
+    private static final int LAZY_BATCH_BLOCKS = 32;
+    private static final Pattern LINK_REFERENCE = Pattern.compile("(?m)^ {0,3}\\[[^\\]]+\\]:");
+    private static final Parser BLOCK_PARSER = Parser.builder()
+            .extensions(Collections.singletonList(TablesExtension.create()))
+            .includeSourceSpans(IncludeSourceSpans.BLOCKS)
+            .build();
+
+    private final MarkdownRenderer renderer = new MarkdownRenderer();
+    private final BlockCache blockHtml = new BlockCache(BLOCK_CACHE_BYTES);
+    private final RenderCache renderCache = new RenderCache(RENDER_CACHE_BYTES);
+    private PreviewKit kit;
+    private int themeGeneration = 0;
+    private final AtomicLong nextBlockId = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "markdown-preview");
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
     public MarkdownPreview() {
-        List<Extension> exts = new ArrayList<Extension>();
-        exts.add(StrikethroughExtension.create());
-        exts.add(TablesExtension.create());
-        parser = Parser.builder().extensions(exts).build();
-        renderer = HtmlRenderer.builder().extensions(exts).build();
+        UIManager.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override public void propertyChange(PropertyChangeEvent evt) {
+                if ("lookAndFeel".equals(evt.getPropertyName())) invalidateTheme();
+            }
+        });
+    }
+
+    public MarkdownRenderer renderer() {
+        return renderer;
+    }
+
+    public void invalidateTheme() {
+        kit = null;
+    }
+
+    public void renderAsync(JEditorPane pane, String markdown, Object source) {
+        renderAsync(pane, markdown, source, 0);
+    }
+
+    public void renderAsync(JEditorPane pane, String markdown, Object source, int anchorOffset) {
+        renderAsync(pane, markdown, source, anchorOffset, false);
+    }
+
+    private void renderAsync(final JEditorPane pane, final String markdown, final Object source, final int anchorOffset, boolean forceFull) {
+        if (kit == null) {
+            StyleSheet css = new StyleSheet();
+            css.addRule(baseCss());
+            kit = new PreviewKit(css, ++themeGeneration);
+        }
+        final PreviewKit previewKit = kit;
+        if (pane.getEditorKit() != previewKit) pane.setEditorKit(previewKit);
+
+        final String theme = "theme" + previewKit.generation;
+        final long gen = generation.incrementAndGet();
+        PaneState state = (PaneState) pane.getClientProperty(STATE_KEY);
+        final boolean sameSource = state != null && state.document == pane.getDocument()
+                && (source == null ? state.source == null : source.equals(state.source));
+        final boolean full = forceFull || !sameSource;
+
+        worker.execute(new Runnable() {
+            @Override public void run() {
+                if (gen != generation.get()) return;
+                final String key = theme + ":" + contentKey(markdown);
+                PaneState cached = full ? renderCache.take(key) : null;
+                if (cached != null) {
+                    publish(cached);
+                    return;
+                }
+
+                final List<String> blocks = splitBlocks(markdown);
+                final List<String> html = new ArrayList<String>(blocks.size());
+                long htmlChars = 0L;
+                for (int i = 0; i < blocks.size(); i++) {
+                    if (gen != generation.get()) return;
+                    String h = renderBlock(blocks.get(i));
+                    html.add(h);
+                    htmlChars += h.length();
+                }
+                final long weight = 2L * markdown.length() + 8L * htmlChars;
+
+                if (full) {
+                    List<String> ids = new ArrayList<String>(blocks.size());
+                    for (int i = 0; i < blocks.size(); i++) ids.add(newBlockId());
+                    int from = 0;
+                    int to = blocks.size();
+                    if (blocks.size() > LAZY_BLOCK_THRESHOLD) {
+                        int anchor = blockAt(blocks, anchorOffset);
+                        from = Math.max(0, anchor - LAZY_MARGIN_BLOCKS);
+                        to = Math.min(blocks.size(), anchor + LAZY_INITIAL_BLOCKS);
+                    }
+                    try {
+                        Document doc = buildDocument(previewKit, html, ids, from, to);
+                        PaneState built = new PaneState(doc, source, blocks, html, ids, key, weight);
+                        built.shownFrom = from;
+                        built.shownTo = to;
+                        publish(built);
+                    } catch (IOException e) {
+                        return;
+                    } catch (BadLocationException e) {
+                        return;
+                    }
+                    return;
+                }
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override public void run() {
+                        if (gen != generation.get()) return;
+                        PaneState current = (PaneState) pane.getClientProperty(STATE_KEY);
+                        if (current == null || current.document != pane.getDocument() || !patch(current, blocks, html)) {
+                            renderAsync(pane, markdown, source, anchorOffset, true);
+                            return;
+                        }
+                        current.key = key;
+                        current.weight = weight;
+                    }
+                });
+            }
+
+            private void publish(final PaneState next) {
+                if (gen != generation.get()) {
+                    renderCache.put(next);
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override public void run() {
+                        if (gen != generation.get()) {
+                            renderCache.put(next);
+                            return;
+                        }
+                        PaneState outgoing = (PaneState) pane.getClientProperty(STATE_KEY);
+                        if (outgoing != null && outgoing.document == pane.getDocument()) renderCache.put(outgoing);
+                        next.source = source;
+                        swapDocument(pane, next, sameSource);
+                    }
+                });
+            }
+        });
+    }
+
+    private static String contentKey(String markdown) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < markdown.length(); i++) {
+            h ^= markdown.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return markdown.length() + "-" + Long.toHexString(h);
+    }
+
+    private static int blockAt(List<String> blocks, int offset) {
+        int end = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            end += blocks.get(i).length();
+            if (offset < end) return i;
+        }
+        return Math.max(0, blocks.size() - 1);
+    }
+
+    private static Document buildDocument(HTMLEditorKit kit, List<String> html, List<String> ids, int from, int to) throws IOException, BadLocationException {
+        StringBuilder page = new StringBuilder("<html><head><meta charset='utf-8'></head><body>");
+        for (int i = from; i < to; i++) appendBlock(page, ids.get(i), html.get(i));
+        page.append("<div id='").append(END_ID).append("'></div></body></html>");
+
+        Document doc = kit.createDefaultDocument();
+        doc.putProperty("IgnoreCharsetDirective", Boolean.TRUE);
+        kit.read(new StringReader(page.toString()), doc, 0);
+        return doc;
     }
 
-    public void renderTo(JEditorPane pane, String markdown) {
-        if (pane.getEditorKit() == null || !(pane.getEditorKit() instanceof HTMLEditorKit)) {
-            pane.setEditorKit(new HTMLEditorKit());
+    private static void swapDocument(JEditorPane pane, PaneState state, boolean keepScroll) {
+        final JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, pane);
+        final Point keep = keepScroll && state.isComplete() && viewport != null ? viewport.getViewPosition() : null;
+
+        pane.setDocument(state.document);
+        pane.putClientProperty(STATE_KEY, state);
+        if (!state.isComplete()) materialize(pane, state);
+        if (keep == null) {
+            pane.setCaretPosition(0);
+            return;
         }
-        HTMLEditorKit kit = (HTMLEditorKit) pane.getEditorKit();
-        StyleSheet css = new StyleSheet();
-        css.addRule(baseCss());
-        kit.setStyleSheet(css);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override public void run() {
+                Dimension view = viewport.getViewSize();
+                Dimension extent = viewport.getExtentSize();
+                int x = Math.max(0, Math.min(keep.x, view.width - extent.width));
+                int y = Math.max(0, Math.min(keep.y, view.height - extent.height));
+                viewport.setViewPosition(new Point(x, y));
+            }
+        });
+    }
 
-        String html = toHtml(markdown);
-        pane.setText(html);
-        pane.setCaretPosition(0);
+    private static void materialize(final JEditorPane pane, final PaneState state) {
+        final Timer timer = new Timer(10, null);
+        timer.addActionListener(new ActionListener() {
+            @Override public void actionPerformed(ActionEvent e) {
+                if (pane.getClientProperty(STATE_KEY) != state || pane.getDocument() != state.document
+                        || !(state.document instanceof PreviewDocument) || state.isComplete()) {
+                    timer.stop();
+                    return;
+                }
+                PreviewDocument doc = (PreviewDocument) state.document;
+                try {
+                    if (state.shownTo < state.blocks.size()) {
+                        int to = Math.min(state.blocks.size(), state.shownTo + LAZY_BATCH_BLOCKS);
+                        StringBuilder more = new StringBuilder();
+                        for (int i = state.shownTo; i < to; i++) appendBlock(more, state.ids.get(i), state.html.get(i));
+                        doc.insertBeforeStart(doc.getElement(END_ID), more.toString());
+                        state.shownTo = to;
+                    } else {
+                        int from = Math.max(0, state.shownFrom - LAZY_BATCH_BLOCKS);
+                        StringBuilder more = new StringBuilder();
+                        for (int i = from; i < state.shownFrom; i++) appendBlock(more, state.ids.get(i), state.html.get(i));
+                        JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, pane);
+                        int before = pane.getPreferredSize().height;
+                        doc.insertBeforeStart(doc.getElement(state.ids.get(state.shownFrom)), more.toString());
+                        state.shownFrom = from;
+                        if (viewport != null) {
+                            int delta = pane.getPreferredSize().height - before;
+                            Point p = viewport.getViewPosition();
+                            pane.setSize(pane.getWidth(), pane.getPreferredSize().height);
+                            viewport.setViewPosition(new Point(p.x, p.y + delta));
+                        }
+                    }
+                } catch (BadLocationException ex) {
+                    timer.stop();
+                } catch (IOException ex) {
+                    timer.stop();
+                }
+            }
+        });
+        timer.start();
     }
 
-    private String toHtml(String markdown) {
-        Node doc = parser.parse(markdown == null ? "" : markdown);
-        String body = renderer.render(doc);
-        return "<html><head><meta charset='utf-8'></head><body>" + body + "</body></html>";
+    private boolean patch(PaneState state, List<String> blocks, List<String> html) {
+        if (!(state.document instanceof PreviewDocument)) return false;
+        PreviewDocument doc = (PreviewDocument) state.document;
+        List<String> old = state.blocks;
+
+        int prefix = 0;
+        while (prefix < old.size() && prefix < blocks.size() && old.get(prefix).equals(blocks.get(prefix))) prefix++;
+        int suffix = 0;
+        while (suffix < old.size() - prefix && suffix < blocks.size() - prefix
+                && old.get(old.size() - 1 - suffix).equals(blocks.get(blocks.size() - 1 - suffix))) suffix++;
+        int oldEnd = old.size() - suffix;
+        int newEnd = blocks.size() - suffix;
+        if (prefix == oldEnd && prefix == newEnd) {
+            state.html = html;
+            return true;
+        }
+        if (oldEnd - prefix > MAX_PATCHED_BLOCKS || newEnd - prefix > MAX_PATCHED_BLOCKS) return false;
+        if (prefix < state.shownFrom) return false;
+        if (oldEnd > prefix ? oldEnd > state.shownTo : (oldEnd >= state.shownTo && state.shownTo < old.size())) return false;
+
+        List<String> newIds = new ArrayList<String>(newEnd - prefix);
+        StringBuilder middle = new StringBuilder();
+        for (int i = prefix; i < newEnd; i++) {
+            String id = newBlockId();
+            newIds.add(id);
+            appendBlock(middle, id, html.get(i));
+        }
+
+        try {
+            if (oldEnd > prefix) {
+                Element first = doc.getElement(state.ids.get(prefix));
+                if (first == null) return false;
+                for (int i = prefix + 1; i < oldEnd; i++) {
+                    Element e = doc.getElement(state.ids.get(i));
+                    if (e == null) return false;
+                    doc.removeBlock(e);
+                }
+                if (newEnd > prefix) doc.setOuterHTML(first, middle.toString());
+                else doc.removeBlock(first);
+            } else {
+                String anchorId = oldEnd < old.size() ? state.ids.get(oldEnd) : END_ID;
+                Element anchor = doc.getElement(anchorId);
+                if (anchor == null) return false;
+                doc.insertBeforeStart(anchor, middle.toString());
+            }
+        } catch (BadLocationException e) {
+            return false;
+        } catch (IOException e) {
+            return false;
+        }
+
+        List<String> ids = new ArrayList<String>(blocks.size());
+        ids.addAll(state.ids.subList(0, prefix));
+        ids.addAll(newIds);
+        ids.addAll(state.ids.subList(oldEnd, old.size()));
+        state.blocks = blocks;
+        state.html = html;
+        state.ids = ids;
+        state.shownTo += newEnd - oldEnd;
+        return true;
+    }
+
+    private String renderBlock(String block) {
+        String html = blockHtml.get(block);
+        if (html == null) {
+            html = renderer.render(block);
+            blockHtml.put(block, html);
+        }
+        return html;
+    }
+
+    private String newBlockId() {
+        return "md" + nextBlockId.getAndIncrement();
+    }
+
+    private static void appendBlock(StringBuilder out, String id, String html) {
+        out.append("<div id='").append(id).append("'>").append(html).append("</div>");
+    }
+
+    // Blocks are cut only where commonmark starts a new top-level block after a blank line, so loose lists and
+    // HTML blocks spanning blank lines stay whole. Raw HTML is never cut off from its neighbours either, since an
+    // opening tag and its closing tag can be separate HTML blocks with Markdown in between.
+    static List<String> splitBlocks(String markdown) {
+        if (markdown == null || markdown.length() == 0) return Collections.emptyList();
+        if (LINK_REFERENCE.matcher(markdown).find()) return Collections.singletonList(markdown);
+
+        List<Integer> lineStarts = new ArrayList<Integer>();
+        lineStarts.add(0);
+        int len = markdown.length();
+        for (int i = 0; i < len; i++) {
+            char c = markdown.charAt(i);
+            if (c == '\n' || (c == '\r' && (i + 1 == len || markdown.charAt(i + 1) != '\n'))) lineStarts.add(i + 1);
+        }
+
+        List<String> blocks = new ArrayList<String>();
+        int blockStart = 0;
+        Node prev = null;
+        for (Node n = BLOCK_PARSER.parse(markdown).getFirstChild(); n != null; n = n.getNext()) {
+            List<SourceSpan> spans = n.getSourceSpans();
+            if (prev != null && !spans.isEmpty() && !(prev instanceof HtmlBlock) && !(n instanceof HtmlBlock)) {
+                int line = spans.get(0).getLineIndex();
+                int start = line < lineStarts.size() ? lineStarts.get(line) : len;
+                if (line > 0 && start > blockStart && isBlank(markdown, lineStarts.get(line - 1), start)) {
+                    blocks.add(markdown.substring(blockStart, start));
+                    blockStart = start;
+                }
+            }
+            prev = n;
+        }
+        if (blockStart < len) blocks.add(markdown.substring(blockStart));
+        return blocks;
+    }
+
+    private static boolean isBlank(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) > ' ') return false;
+        }
+        return true;
     }
 
     private String baseCss() {
@@ -80,4 +434,151 @@ public final class MarkdownPreview {
         if (name == null || name.trim().length() == 0) return "sans-serif";
         return "'" + name.replace("'", "") + "',sans-serif";
     }
+
+    private static final class PaneState {
+        final Document document;
+        Object source;
+        List<String> blocks;
+        List<String> html;
+        List<String> ids;
+        String key;
+        long weight;
+        int shownFrom;
+        int shownTo;
+
+        PaneState(Document document, Object source, List<String> blocks, List<String> html, List<String> ids, String key, long weight) {
+            this.document = document;
+            this.source = source;
+            this.blocks = blocks;
+            this.html = html;
+            this.ids = ids;
+            this.key = key;
+            this.weight = weight;
+            this.shownFrom = 0;
+            this.shownTo = blocks.size();
+        }
+
+        boolean isComplete() {
+            return shownFrom == 0 && shownTo == blocks.size();
+        }
+    }
+
+    private static final class BlockCache {
+        private final long maxBytes;
+        private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(256, 0.75f, true);
+        private long bytes = 0L;
+
+        BlockCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        String get(String block) {
+            return entries.get(block);
+        }
+
+        void put(String block, String html) {
+            long weight = 2L * (block.length() + html.length());
+            if (weight > maxBytes) return;
+            String prev = entries.put(block, html);
+            if (prev != null) bytes -= 2L * (block.length() + prev.length());
+            bytes += weight;
+            Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, String> e = it.next();
+                bytes -= 2L * (e.getKey().length() + e.getValue().length());
+                it.remove();
+            }
+        }
+    }
+
+    private static final class RenderCache {
+        private final long maxBytes;
+        private final LinkedHashMap<String, PaneState> entries = new LinkedHashMap<String, PaneState>(16, 0.75f, true);
+        private long bytes = 0L;
+
+        RenderCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized PaneState take(String key) {
+            PaneState s = entries.remove(key);
+            if (s != null) bytes -= s.weight;
+            return s;
+        }
+
+        synchronized void put(PaneState s) {
+            if (s.key == null || s.weight > maxBytes) return;
+            PaneState prev = entries.put(s.key, s);
+            if (prev != null) bytes -= prev.weight;
+            bytes += s.weight;
+            Iterator<PaneState> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().weight;
+                it.remove();
+            }
+        }
+    }
+
+    private static final class PreviewKit extends HTMLEditorKit {
+        private static final long serialVersionUID = 1L;
+
+        final StyleSheet styles;
+        final int generation;
+
+        PreviewKit(StyleSheet styles, int generation) {
+            this.styles = styles;
+            this.generation = generation;
+        }
+
+        @Override
+        public StyleSheet getStyleSheet() {
+            return styles;
+        }
+
+        @Override
+        public Document createDefaultDocument() {
+            StyleSheet ss = new StyleSheet();
+            ss.addStyleSheet(getStyleSheet());
+            PreviewDocument doc = new PreviewDocument(ss);
+            doc.setParser(getParser());
+            doc.setAsynchronousLoadPriority(4);
+            doc.setTokenThreshold(100);
+            return doc;
+        }
+    }
+
+    private static final class PreviewDocument extends HTMLDocument {
+        private static final long serialVersionUID = 1L;
+
+        PreviewDocument(StyleSheet styles) {
+            super(styles);
+        }
+
+        void removeBlock(Element elem) throws BadLocationException {
+            writeLock();
+            try {
+                Element parent = elem.getParentElement();
+                if (!(parent instanceof AbstractDocument.BranchElement)) throw new BadLocationException("detached block", 0);
+                int index = -1;
+                for (int i = 0; i < parent.getElementCount(); i++) {
+                    if (parent.getElement(i) == elem) { index = i; break; }
+                }
+                if (index < 0 || index == parent.getElementCount() - 1) throw new BadLocationException("not removable", 0);
+
+                int start = elem.getStartOffset();
+                int length = elem.getEndOffset() - start;
+                DefaultDocumentEvent dde = new DefaultDocumentEvent(start, length, DocumentEvent.EventType.REMOVE);
+                Element[] removed = { elem };
+                ((AbstractDocument.BranchElement) parent).replace(index, 1, new Element[0]);
+                dde.addEdit(new ElementEdit(parent, index, removed, new Element[0]));
+                UndoableEdit u = getContent().remove(start, length);
+                if (u != null) dde.addEdit(u);
+                postRemoveUpdate(dde);
+                dde.end();
+                fireRemoveUpdate(dde);
+            } finally {
+                writeUnlock();
+            }
+        }
+    }
 }
@@ -0,0 +1,40 @@
+import org.commonmark.Extension;
+import org.commonmark.ext.gfm.strikethrough.StrikethroughExtension;
+import org.commonmark.ext.gfm.tables.TablesExtension;
+import org.commonmark.node.Node;
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.html.HtmlRenderer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class MarkdownRenderer {
+    private final Parser parser;
+    private final HtmlRenderer renderer;
+
+    public MarkdownRenderer() {
+        List<Extension> exts = new ArrayList<Extension>();
+        exts.add(StrikethroughExtension.create());
+        exts.add(TablesExtension.create());
+        parser = Parser.builder().extensions(exts).build();
+        renderer = HtmlRenderer.builder().extensions(exts).build();
+    }
+
+    public String render(String markdown) {
+        Node doc = parser.parse(markdown == null ? "" : markdown);
+        return renderer.render(doc);
+    }
+
+    public String renderPage(String title, String markdown) {
+        return "<!DOCTYPE html>\n<html><head><meta charset='utf-8'><title>" + escapeHtml(title) + "</title>"
+                + "<style>body{font-family:sans-serif;line-height:1.45;max-width:860px;margin:24px auto;padding:0 14px;}"
+                + "pre{padding:10px;background:#f4f4f4;overflow:auto;}table{border-collapse:collapse;}"
+                + "th,td{border:1px solid #ccc;padding:6px 8px;}</style></head><body>\n"
+                + render(markdown) + "</body></html>\n";
+    }
+
+    private static String escapeHtml(String s) {
+        if (s == null) return "";
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
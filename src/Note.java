@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
@@ -14,6 +15,10 @@ public final class Note {
     public long createdAt;
     public long updatedAt;
 
+    private transient int revision;
+    private transient boolean frozen;
+    private transient Derived derived;
+
     public Note() {}
 
     public static Note createEmpty() {
@@ -31,18 +36,91 @@ public final class Note {
         return n;
     }
 
+    public int revision() {
+        return revision;
+    }
+
+    public void setContent(String content) {
+        checkMutable();
+        this.content = content;
+        revision++;
+    }
+
+    public void setTags(List<String> tags) {
+        checkMutable();
+        this.tags = tags;
+        revision++;
+    }
+
+    public void markChanged() {
+        checkMutable();
+        revision++;
+    }
+
+    public void copyStateFrom(Note other) {
+        checkMutable();
+        content = other.content;
+        tags = other.tags == null ? new ArrayList<String>() : new ArrayList<String>(other.tags);
+        pinned = other.pinned;
+        archived = other.archived;
+        deleted = other.deleted;
+        deletedAt = other.deletedAt;
+        createdAt = other.createdAt;
+        updatedAt = other.updatedAt;
+        revision++;
+    }
+
+    public boolean sameState(Note other) {
+        if (other == null) return false;
+        if (pinned != other.pinned || archived != other.archived || deleted != other.deleted) return false;
+        if (deletedAt != other.deletedAt || createdAt != other.createdAt || updatedAt != other.updatedAt) return false;
+        List<String> a = tags == null ? Collections.<String>emptyList() : tags;
+        List<String> b = other.tags == null ? Collections.<String>emptyList() : other.tags;
+        return a.equals(b) && (content == null ? other.content == null : content.equals(other.content));
+    }
+
+    public Note freeze(Note previous) {
+        if (previous != null && previous.revision == revision && previous.content == content
+                && previous.updatedAt == updatedAt && previous.createdAt == createdAt && previous.deletedAt == deletedAt
+                && previous.pinned == pinned && previous.archived == archived && previous.deleted == deleted
+                && previous.tags.equals(tags == null ? Collections.<String>emptyList() : tags)) {
+            return previous;
+        }
+        Note c = new Note();
+        c.id = id;
+        c.content = content;
+        c.tags = tags == null ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(tags));
+        c.pinned = pinned;
+        c.archived = archived;
+        c.deleted = deleted;
+        c.deletedAt = deletedAt;
+        c.createdAt = createdAt;
+        c.updatedAt = updatedAt;
+        c.revision = revision;
+        c.frozen = true;
+        c.title();
+        c.snippet();
+        return c;
+    }
+
     public String title() {
-        String t = firstNonEmptyLine(content);
-        if (t.length() == 0) return "（无标题）";
-        t = t.replace('\t', ' ').trim();
-        if (t.length() > 36) t = t.substring(0, 36) + "…";
-        return t;
+        Derived d = derived();
+        if (d.title == null) {
+            String t = firstNonEmptyLine(content);
+            if (t.length() == 0) t = "（无标题）";
+            else {
+                t = t.replace('\t', ' ').trim();
+                if (t.length() > 36) t = t.substring(0, 36) + "…";
+            }
+            d.title = t;
+        }
+        return d.title;
     }
 
     public String snippet() {
-        String s = content == null ? "" : content.replace('\r', ' ').replace('\n', ' ').replace('\t', ' ').trim();
-        if (s.length() > 90) s = s.substring(0, 90) + "…";
-        return s;
+        Derived d = derived();
+        if (d.snippet == null) d.snippet = buildSnippet(content);
+        return d.snippet;
     }
 
     public boolean matchesQuery(String q) {
@@ -50,27 +128,92 @@ public final class Note {
         q = q.trim();
         if (q.length() == 0) return true;
         String needle = q.toLowerCase(Locale.ROOT);
-        String hay = (title() + "\n" + tagsJoined() + "\n" + (content == null ? "" : content)).toLowerCase(Locale.ROOT);
-        return hay.contains(needle);
+        return searchText().contains(needle);
+    }
+
+    private String searchText() {
+        Derived d = derived();
+        if (d.searchText == null) {
+            d.searchText = (title() + "\n" + tagsJoined() + "\n" + (content == null ? "" : content)).toLowerCase(Locale.ROOT);
+        }
+        return d.searchText;
     }
 
     public String tagsJoined() {
-        if (tags == null || tags.isEmpty()) return "";
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < tags.size(); i++) {
-            if (i > 0) sb.append(", ");
-            sb.append(tags.get(i));
+        Derived d = derived();
+        if (d.tagsJoined == null) {
+            if (tags == null || tags.isEmpty()) d.tagsJoined = "";
+            else {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < tags.size(); i++) {
+                    if (i > 0) sb.append(", ");
+                    sb.append(tags.get(i));
+                }
+                d.tagsJoined = sb.toString();
+            }
+        }
+        return d.tagsJoined;
+    }
+
+    private void checkMutable() {
+        if (frozen) throw new IllegalStateException("Note " + id + " is a read-only snapshot copy");
+    }
+
+    private Derived derived() {
+        Derived d = derived;
+        if (d == null || d.revision != revision || d.content != content || d.tags != tags) {
+            d = new Derived(revision, content, tags);
+            derived = d;
         }
+        return d;
+    }
+
+    private static String buildSnippet(String s) {
+        if (s == null) return "";
+        int start = 0;
+        int end = s.length();
+        while (start < end && s.charAt(start) <= ' ') start++;
+        while (end > start && s.charAt(end - 1) <= ' ') end--;
+        int len = Math.min(end - start, 90);
+        StringBuilder sb = new StringBuilder(len + 1);
+        for (int i = start; i < start + len; i++) {
+            char c = s.charAt(i);
+            sb.append(c == '\r' || c == '\n' || c == '\t' ? ' ' : c);
+        }
+        if (end - start > 90) sb.append('…');
         return sb.toString();
     }
 
     private static String firstNonEmptyLine(String s) {
         if (s == null) return "";
-        String[] lines = s.split("\\r?\\n");
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i].trim();
-            if (line.length() > 0) return line;
+        int lineStart = 0;
+        int len = s.length();
+        while (lineStart <= len) {
+            int lineEnd = s.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = len;
+            int a = lineStart;
+            int b = lineEnd;
+            while (a < b && s.charAt(a) <= ' ') a++;
+            while (b > a && s.charAt(b - 1) <= ' ') b--;
+            if (a < b) return s.substring(a, b);
+            lineStart = lineEnd + 1;
         }
         return "";
     }
+
+    private static final class Derived {
+        final int revision;
+        final String content;
+        final List<String> tags;
+        String title;
+        String snippet;
+        String tagsJoined;
+        String searchText;
+
+        Derived(int revision, String content, List<String> tags) {
+            this.revision = revision;
+            this.content = content;
+            this.tags = tags;
+        }
+    }
 }
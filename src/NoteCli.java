@@ -0,0 +1,398 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public final class NoteCli {
+    private static final String USAGE = String.join("\n",
+            "用法: cli <命令> [参数]",
+            "  list    [--scope active|archived|all|trash] [--tag T] [--limit N]",
+            "  search  <关键字> [--scope ...] [--tag T] [--limit N]",
+            "  create  [--tag T]... [文本]          (无文本时读取标准输入)",
+            "  tag     <id>... [--query Q] [+标签] [-标签]...",
+            "  export  <目录|文件.zip> [--html] [--scope ...] [--tag T]",
+            "  backup  [--zip 文件.zip]             (默认增量备份)",
+            "  restore <文件.zip> | --manifest 名称 | --list",
+            "  compact [--days N]                    (清理 N 天前的回收站，默认 30)",
+            "  sync    <同步目录>                     (与共享文件夹双向同步)",
+            "  serve   [--port N]                    (启动本地 HTTP API，默认端口 " + NoteServer.DEFAULT_PORT + ")");
+
+    private final AppPaths paths = new AppPaths();
+    private final NoteStore store = new NoteStore(paths);
+    private final PrintStream out;
+    private final SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.ROOT);
+
+    private NoteCli(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        PrintStream out;
+        try {
+            out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024), false, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            out = System.out;
+        }
+        int code;
+        try {
+            code = new NoteCli(out).run(args);
+        } catch (IllegalArgumentException e) {
+            out.flush();
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            code = 2;
+        } catch (IOException e) {
+            out.flush();
+            System.err.println("错误: " + e);
+            code = 1;
+        }
+        out.flush();
+        System.exit(code);
+    }
+
+    private int run(String[] argv) throws IOException {
+        if (argv.length == 0) throw new IllegalArgumentException("缺少命令");
+        Args a = new Args(argv);
+        String cmd = a.positional.isEmpty() ? "" : a.positional.remove(0);
+        BackupArchive.recover(paths);
+        switch (cmd) {
+            case "list": return list(a, null);
+            case "search":
+                if (a.positional.isEmpty()) throw new IllegalArgumentException("search 需要关键字");
+                return list(a, String.join(" ", a.positional));
+            case "create": return create(a);
+            case "tag": return tag(a);
+            case "export": return export(a);
+            case "backup": return backup(a);
+            case "restore": return restore(a);
+            case "compact": return compact(a);
+            case "sync": return sync(a);
+            case "serve": return serve(a);
+            case "help": out.println(USAGE); return 0;
+            default: throw new IllegalArgumentException("未知命令: " + cmd);
+        }
+    }
+
+    private int list(Args a, String query) throws IOException {
+        store.ensureLoaded();
+        int limit = a.intOpt("--limit", Integer.MAX_VALUE);
+        int n = 0;
+        for (Note note : select(a, query)) {
+            if (n++ >= limit) break;
+            out.print(note.id);
+            out.print('\t');
+            out.print(fmt.format(new Date(note.updatedAt)));
+            out.print('\t');
+            out.print(note.tagsJoined());
+            out.print('\t');
+            out.println(note.title());
+        }
+        return 0;
+    }
+
+    private int create(Args a) throws IOException {
+        String text = a.positional.isEmpty() ? readStdin() : String.join(" ", a.positional);
+        store.ensureLoaded();
+        Note n = Note.createEmpty();
+        n.setContent(text);
+        List<String> tags = new ArrayList<String>();
+        for (String t : a.all("--tag")) {
+            String nt = NoteStore.normalizeTag(t);
+            if (nt.length() > 0 && !tags.contains(nt)) tags.add(nt);
+        }
+        n.setTags(tags);
+        List<Note> batch = new ArrayList<Note>();
+        batch.add(n);
+        store.addAll(batch);
+        out.println(n.id);
+        return 0;
+    }
+
+    private int tag(Args a) throws IOException {
+        List<String> add = new ArrayList<String>();
+        List<String> remove = new ArrayList<String>();
+        List<String> ids = new ArrayList<String>();
+        for (String p : a.positional) {
+            if (p.startsWith("+") && p.length() > 1) add.add(NoteStore.normalizeTag(p.substring(1)));
+            else if (p.startsWith("-") && p.length() > 1) remove.add(NoteStore.normalizeTag(p.substring(1)));
+            else ids.add(p);
+        }
+        if (add.isEmpty() && remove.isEmpty()) throw new IllegalArgumentException("tag 需要 +标签 或 -标签");
+        store.ensureLoaded();
+
+        Set<String> targets = new LinkedHashSet<String>();
+        String query = a.opt("--query", null);
+        if (query != null) {
+            for (Note n : select(a, query)) targets.add(n.id);
+        }
+        for (String id : ids) {
+            if (store.getById(id) == null) throw new IOException("找不到便签: " + id);
+            targets.add(id);
+        }
+
+        int changed = store.mutateAll(targets, n -> {
+            List<String> tags = new ArrayList<String>(n.tags == null ? new ArrayList<String>() : n.tags);
+            boolean dirty = false;
+            for (String t : remove) {
+                for (int i = tags.size() - 1; i >= 0; i--) {
+                    if (tags.get(i).equalsIgnoreCase(t)) {
+                        tags.remove(i);
+                        dirty = true;
+                    }
+                }
+            }
+            for (String t : add) {
+                if (t.length() > 0 && !containsIgnoreCase(tags, t)) {
+                    tags.add(t);
+                    dirty = true;
+                }
+            }
+            if (dirty) n.setTags(tags);
+            return dirty;
+        });
+        out.println("已更新 " + changed + " 条");
+        return 0;
+    }
+
+    private int export(Args a) throws IOException {
+        if (a.positional.isEmpty()) throw new IllegalArgumentException("export 需要目标目录或 zip 文件");
+        Path target = Paths.get(a.positional.get(0));
+        store.ensureLoaded();
+        List<BulkExporter.Item> items = BulkExporter.snapshot(select(a, null));
+        BulkExporter exporter = new BulkExporter(new MarkdownRenderer(), a.flag("--html"));
+        BulkExporter.Listener listener = new BulkExporter.Listener() {
+            @Override public void progress(int done, int total) {
+                if (done == total || done % 1000 == 0) System.err.println("[export] " + done + "/" + total);
+            }
+
+            @Override public boolean isCancelled() {
+                return false;
+            }
+        };
+        boolean zip = target.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+        int n = zip ? exporter.exportToZip(items, target, listener) : exporter.exportToDirectory(items, target, listener);
+        out.println("已导出 " + n + " 条: " + target);
+        return 0;
+    }
+
+    private int backup(Args a) throws IOException {
+        String zip = a.opt("--zip", null);
+        if (zip != null) {
+            new BackupArchive(paths).write(Paths.get(zip), new BackupArchive.Listener() {
+                @Override public void progress(int done, int total) {}
+
+                @Override public boolean isCancelled() {
+                    return false;
+                }
+            });
+            out.println("已备份: " + zip);
+            return 0;
+        }
+        BackupManager.Result r = new BackupManager(paths).backup();
+        out.println("已增量备份 " + r.name + ": " + r.files + " 个文件，新增 " + r.stored + " 个（" + r.storedBytes + " 字节）");
+        return 0;
+    }
+
+    private int restore(Args a) throws IOException {
+        BackupManager backups = new BackupManager(paths);
+        if (a.flag("--list")) {
+            for (String name : backups.listBackups()) out.println(name);
+            return 0;
+        }
+        String manifest = a.opt("--manifest", null);
+        if (manifest != null) {
+            Path staging = BackupArchive.stagingDir(paths);
+            boolean swapped = false;
+            try {
+                BackupArchive.deleteRecursively(staging);
+                Files.createDirectories(staging);
+                backups.restoreTo(manifest, staging);
+                BackupArchive.verifyNotes(staging.resolve("notes.json"));
+                BackupArchive.swapIn(paths, staging);
+                swapped = true;
+            } finally {
+                if (!swapped) BackupArchive.deleteRecursively(staging);
+            }
+            out.println("已恢复到备份: " + manifest);
+            return 0;
+        }
+        if (a.positional.isEmpty()) throw new IllegalArgumentException("restore 需要 zip 文件、--manifest 或 --list");
+        Path zip = Paths.get(a.positional.get(0));
+        new BackupArchive(paths).restore(zip, new BackupArchive.Listener() {
+            @Override public void progress(int done, int total) {}
+
+            @Override public boolean isCancelled() {
+                return false;
+            }
+        });
+        out.println("已导入备份: " + zip);
+        return 0;
+    }
+
+    private int compact(Args a) throws IOException {
+        int days = a.intOpt("--days", 30);
+        store.ensureLoaded();
+        long cutoff = System.currentTimeMillis() - days * 24L * 60 * 60 * 1000;
+        int purged = store.purgeTrashBefore(cutoff);
+        int orphans = store.deleteOrphanHistory();
+        out.println("已清理回收站 " + purged + " 条，孤立历史 " + orphans + " 个");
+        return 0;
+    }
+
+    private int sync(Args a) throws IOException {
+        if (a.positional.isEmpty()) throw new IllegalArgumentException("sync 需要同步目录");
+        store.ensureLoaded();
+        SyncEngine.Report r = new SyncEngine(paths, store, Paths.get(a.positional.get(0))).sync();
+        out.println("已同步: 拉取 " + r.pulled + "，推送 " + r.pushed + "，合并 " + r.merged + "，冲突 " + r.conflicts);
+        return 0;
+    }
+
+    private int serve(Args a) throws IOException {
+        int port = a.intOpt("--port", NoteServer.DEFAULT_PORT);
+        ExecutorService storeThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                return new Thread(r, "note-store");
+            }
+        });
+        Future<?> loaded = storeThread.submit(new Callable<Void>() {
+            @Override public Void call() throws IOException {
+                store.ensureLoaded();
+                return null;
+            }
+        });
+        try {
+            loaded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        NoteServer server = new NoteServer(store, null, NoteServer.loadOrCreateToken(paths));
+        server.start(port);
+        NotesWatcher watcher = new NotesWatcher(paths, () -> storeThread.execute(() -> {
+            try {
+                store.reloadFromDisk();
+            } catch (IOException e) {
+                System.err.println("重新载入失败: " + e.getMessage());
+            }
+        }));
+        watcher.start();
+        out.println("本地 API: http://127.0.0.1:" + server.port() + "/notes");
+        out.println("令牌文件: " + paths.apiTokenFile);
+        out.flush();
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        watcher.stop();
+        server.stop();
+        return 0;
+    }
+
+    private List<Note> select(Args a, String query) {
+        String scope = a.opt("--scope", "active").toLowerCase(Locale.ROOT);
+        String tag = a.opt("--tag", null);
+        List<Note> out = new ArrayList<Note>();
+        for (Note n : store.sortedView()) {
+            if (scope.equals("trash")) {
+                if (!n.deleted) continue;
+            } else {
+                if (n.deleted) continue;
+                if (scope.equals("active") && n.archived) continue;
+                if (scope.equals("archived") && !n.archived) continue;
+            }
+            if (query != null && !n.matchesQuery(query)) continue;
+            if (tag != null && !containsIgnoreCase(n.tags, tag)) continue;
+            out.add(n);
+        }
+        return out;
+    }
+
+    private static boolean containsIgnoreCase(List<String> tags, String tag) {
+        if (tags == null) return false;
+        for (String t : tags) {
+            if (tag.equalsIgnoreCase(t)) return true;
+        }
+        return false;
+    }
+
+    private static String readStdin() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        InputStream in = System.in;
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) >= 0) bos.write(buf, 0, n);
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static final class Args {
+        final List<String> positional = new ArrayList<String>();
+        final List<String[]> options = new ArrayList<String[]>();
+
+        Args(String[] argv) {
+            for (int i = 0; i < argv.length; i++) {
+                String s = argv[i];
+                if (s.equals("--html") || s.equals("--list")) {
+                    options.add(new String[] { s, "true" });
+                } else if (s.startsWith("--")) {
+                    if (i + 1 >= argv.length) throw new IllegalArgumentException("缺少参数值: " + s);
+                    options.add(new String[] { s, argv[++i] });
+                } else {
+                    positional.add(s);
+                }
+            }
+        }
+
+        String opt(String name, String fallback) {
+            String v = fallback;
+            for (String[] o : options) if (o[0].equals(name)) v = o[1];
+            return v;
+        }
+
+        List<String> all(String name) {
+            List<String> out = new ArrayList<String>();
+            for (String[] o : options) if (o[0].equals(name)) out.add(o[1]);
+            return out;
+        }
+
+        boolean flag(String name) {
+            return opt(name, null) != null;
+        }
+
+        int intOpt(String name, int fallback) {
+            String v = opt(name, null);
+            if (v == null) return fallback;
+            try {
+                return Integer.parseInt(v.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("无效数字: " + name + " " + v);
+            }
+        }
+    }
+}
@@ -1,46 +1,149 @@
 import javax.swing.*;
-import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
-public final class NoteListCellRenderer extends JPanel implements ListCellRenderer<Note> {
-    private final JLabel titleLabel = new JLabel();
-    private final JLabel snippetLabel = new JLabel();
-    private final JLabel metaLabel = new JLabel();
-    private final SimpleDateFormat fmt = new SimpleDateFormat("MM-dd HH:mm", Locale.ROOT);
+public final class NoteListCellRenderer extends JComponent implements ListCellRenderer<Note> {
+    private static final long serialVersionUID = 1L;
+    private static final int CACHE_LIMIT = 512;
+    private static final int MAX_HITS = 8;
+    private static final Insets PAD = new Insets(8, 10, 8, 10);
+    private static final int GAP_AFTER_TITLE = 3;
+    private static final int GAP_AFTER_SNIPPET = 6;
+    private static final char[] ELLIPSIS = { '…' };
+    private static final Color HIGHLIGHT_LIGHT = new Color(0xfff4a3);
+    private static final Color HIGHLIGHT_DARK = new Color(0x3a3f2a);
 
-    public NoteListCellRenderer() {
-        setLayout(new BorderLayout());
-        setBorder(new EmptyBorder(8, 10, 8, 10));
+    private final SimpleDateFormat fmt = new SimpleDateFormat("MM-dd HH:mm", Locale.ROOT);
+    private final Map<String, RowData> cache = new LinkedHashMap<String, RowData>(64, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, RowData> eldest) {
+            return size() > CACHE_LIMIT;
+        }
+    };
 
-        JPanel lines = new JPanel();
-        lines.setOpaque(false);
-        lines.setLayout(new BoxLayout(lines, BoxLayout.Y_AXIS));
+    private Font titleFont;
+    private Font snippetFont;
+    private Font metaFont;
+    private Map<?, ?> textHints;
 
-        titleLabel.setFont(titleLabel.getFont().deriveFont(Font.BOLD, titleLabel.getFont().getSize2D() + 0.5f));
+    private RowData row;
+    private Color background;
+    private Color titleColor;
+    private Color dimColor;
+    private Color highlightColor;
 
-        snippetLabel.setFont(snippetLabel.getFont().deriveFont(Font.PLAIN, snippetLabel.getFont().getSize2D() - 0.5f));
-        snippetLabel.setForeground(UIManager.getColor("Label.disabledForeground"));
+    public NoteListCellRenderer() {
+        setOpaque(true);
+        updateFonts();
+    }
 
-        metaLabel.setFont(metaLabel.getFont().deriveFont(Font.PLAIN, metaLabel.getFont().getSize2D() - 1.5f));
-        metaLabel.setForeground(UIManager.getColor("Label.disabledForeground"));
+    @Override
+    public void updateUI() {
+        super.updateUI();
+        updateFonts();
+        if (cache != null) cache.clear();
+    }
 
-        lines.add(titleLabel);
-        lines.add(Box.createVerticalStrut(3));
-        lines.add(snippetLabel);
-        lines.add(Box.createVerticalStrut(6));
-        lines.add(metaLabel);
-        add(lines, BorderLayout.CENTER);
+    private void updateFonts() {
+        Font base = UIManager.getFont("Label.font");
+        if (base == null) base = new Font(Font.SANS_SERIF, Font.PLAIN, 13);
+        titleFont = base.deriveFont(Font.BOLD, base.getSize2D() + 0.5f);
+        snippetFont = base.deriveFont(Font.PLAIN, base.getSize2D() - 0.5f);
+        metaFont = base.deriveFont(Font.PLAIN, base.getSize2D() - 1.5f);
+        textHints = (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
     }
 
     @Override
     public Component getListCellRendererComponent(JList<? extends Note> list, Note value, int index, boolean isSelected, boolean cellHasFocus) {
         String query = "";
         Object q = list.getClientProperty("query");
-        if (q != null) query = q.toString();
+        if (q != null) query = q.toString().trim();
+
+        boolean dark = isDark(list.getBackground());
+        row = rowData(value, query, dark);
+
+        Color dim = UIManager.getColor("Label.disabledForeground");
+        if (isSelected) {
+            background = list.getSelectionBackground();
+            titleColor = list.getSelectionForeground();
+            dimColor = titleColor;
+        } else {
+            background = list.getBackground();
+            titleColor = list.getForeground();
+            dimColor = dim == null ? titleColor : dim;
+        }
+        highlightColor = dark ? HIGHLIGHT_DARK : HIGHLIGHT_LIGHT;
+        return this;
+    }
 
+    @Override
+    public Dimension getPreferredSize() {
+        int h = PAD.top + lineHeight(titleFont) + GAP_AFTER_TITLE + lineHeight(snippetFont)
+                + GAP_AFTER_SNIPPET + lineHeight(metaFont) + PAD.bottom;
+        return new Dimension(PAD.left + PAD.right + 120, h);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        if (textHints != null) g2.addRenderingHints(textHints);
+        g2.setColor(background);
+        g2.fillRect(0, 0, getWidth(), getHeight());
+        if (row == null) return;
+
+        int avail = getWidth() - PAD.left - PAD.right;
+        int y = PAD.top;
+        y = paintLine(g2, row.title, titleFont, titleColor, avail, y) + GAP_AFTER_TITLE;
+        y = paintLine(g2, row.snippet, snippetFont, dimColor, avail, y) + GAP_AFTER_SNIPPET;
+        paintLine(g2, row.meta, metaFont, dimColor, avail, y);
+    }
+
+    private int paintLine(Graphics2D g2, LineData line, Font font, Color fg, int avail, int top) {
+        FontMetrics fm = g2.getFontMetrics(font);
+        int height = fm.getHeight();
+        if (line.chars.length == 0 || avail <= 0) return top + height;
+
+        int visible = line.visibleLength(fm, avail);
+        boolean clipped = visible < line.chars.length;
+        int x = PAD.left;
+        int baseline = top + fm.getAscent();
+
+        if (line.hits.length > 0) {
+            g2.setColor(highlightColor);
+            for (int i = 0; i < line.hits.length; i += 2) {
+                int start = line.hits[i];
+                if (start >= visible) break;
+                int end = Math.min(line.hits[i + 1], visible);
+                int x0 = x + fm.charsWidth(line.chars, 0, start);
+                int w = fm.charsWidth(line.chars, start, end - start);
+                g2.fillRoundRect(x0 - 2, top, w + 4, height, 3, 3);
+            }
+        }
+
+        g2.setFont(font);
+        g2.setColor(fg);
+        g2.drawChars(line.chars, 0, visible, x, baseline);
+        if (clipped) g2.drawChars(ELLIPSIS, 0, 1, x + fm.charsWidth(line.chars, 0, visible), baseline);
+        return top + height;
+    }
+
+    private int lineHeight(Font font) {
+        return getFontMetrics(font).getHeight();
+    }
+
+    private RowData rowData(Note value, String query, boolean dark) {
+        if (value == null || value.id == null) return buildRowData(value, query, dark);
+        RowData cached = cache.get(value.id);
+        if (cached != null && cached.matches(value, query, dark)) return cached;
+        cached = buildRowData(value, query, dark);
+        cache.put(value.id, cached);
+        return cached;
+    }
+
+    private RowData buildRowData(Note value, String query, boolean dark) {
         String title = value == null ? "" : value.title();
         String snippet = value == null ? "" : value.snippet();
         StringBuilder meta = new StringBuilder();
@@ -55,30 +158,19 @@ public final class NoteListCellRenderer extends JPanel implements ListCellRender
             meta.append(fmt.format(new Date(value.updatedAt)));
         }
 
-        boolean dark = isDark(list.getBackground());
-        String hl = dark ? "#3a3f2a" : "#fff4a3";
-        titleLabel.setText(toHtml(highlight(escapeHtml(title), query, hl)));
-        snippetLabel.setText(toHtml(highlight(escapeHtml(snippet), query, hl)));
-        metaLabel.setText(toHtml(highlight(escapeHtml(meta.toString()), query, hl)));
-
-        Color bg;
-        Color fg;
-        if (isSelected) {
-            bg = list.getSelectionBackground();
-            fg = list.getSelectionForeground();
-        } else {
-            bg = list.getBackground();
-            fg = list.getForeground();
-        }
-        setBackground(bg);
-        titleLabel.setForeground(fg);
-        snippetLabel.setForeground(isSelected ? fg : UIManager.getColor("Label.disabledForeground"));
-        metaLabel.setForeground(isSelected ? fg : UIManager.getColor("Label.disabledForeground"));
-        return this;
+        RowData data = new RowData(value, query, dark);
+        data.title = new LineData(title, query);
+        data.snippet = new LineData(snippet, query);
+        data.meta = new LineData(meta.toString(), query);
+        return data;
     }
 
-    private static String toHtml(String inner) {
-        return "<html><body style='margin:0;padding:0'>" + inner + "</body></html>";
+    private static int flagsOf(Note n) {
+        int f = 0;
+        if (n.pinned) f |= 1;
+        if (n.archived) f |= 2;
+        if (n.deleted) f |= 4;
+        return f;
     }
 
     private static boolean isDark(Color c) {
@@ -90,47 +182,85 @@ public final class NoteListCellRenderer extends JPanel implements ListCellRender
         return lum < 128;
     }
 
-    private static String escapeHtml(String s) {
-        if (s == null) return "";
-        StringBuilder sb = new StringBuilder(s.length() + 16);
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '&') sb.append("&amp;");
-            else if (c == '<') sb.append("&lt;");
-            else if (c == '>') sb.append("&gt;");
-            else if (c == '"') sb.append("&quot;");
-            else if (c == '\'') sb.append("&#39;");
-            else sb.append(c);
+    private static int[] matchRanges(String text, String query) {
+        int qlen = query.length();
+        if (qlen == 0 || text.length() < qlen) return new int[0];
+        int[] hits = new int[MAX_HITS * 2];
+        int n = 0;
+        int from = 0;
+        while (from <= text.length() - qlen && n < hits.length) {
+            if (text.regionMatches(true, from, query, 0, qlen)) {
+                hits[n++] = from;
+                hits[n++] = from + qlen;
+                from += qlen;
+            } else {
+                from++;
+            }
         }
-        return sb.toString();
+        if (n == hits.length) return hits;
+        int[] out = new int[n];
+        System.arraycopy(hits, 0, out, 0, n);
+        return out;
     }
 
-    private static String highlight(String escapedText, String query, String hlColor) {
-        if (escapedText == null) return "";
-        if (query == null) return escapedText;
-        query = query.trim();
-        if (query.length() == 0) return escapedText;
+    private static final class LineData {
+        final char[] chars;
+        final int[] hits;
+        private FontMetrics measuredWith;
+        private int measuredWidth = -1;
+        private int measuredLength;
 
-        String lowerText = escapedText.toLowerCase(Locale.ROOT);
-        String lowerQ = escapeHtml(query).toLowerCase(Locale.ROOT);
-        if (lowerQ.length() == 0) return escapedText;
+        LineData(String text, String query) {
+            this.chars = text.toCharArray();
+            this.hits = matchRanges(text, query);
+        }
 
-        StringBuilder out = new StringBuilder(escapedText.length() + 32);
-        int from = 0;
-        int hits = 0;
-        while (from < escapedText.length()) {
-            int idx = lowerText.indexOf(lowerQ, from);
-            if (idx < 0) break;
-            out.append(escapedText, from, idx);
-            int end = idx + lowerQ.length();
-            out.append("<span style='background:").append(hlColor).append(";border-radius:3px;padding:0 2px'>");
-            out.append(escapedText, idx, end);
-            out.append("</span>");
-            from = end;
-            hits++;
-            if (hits >= 8) break;
+        int visibleLength(FontMetrics fm, int avail) {
+            if (fm == measuredWith && avail == measuredWidth) return measuredLength;
+            int len = chars.length;
+            if (fm.charsWidth(chars, 0, len) > avail) {
+                int budget = avail - fm.charsWidth(ELLIPSIS, 0, 1);
+                int w = 0;
+                len = 0;
+                while (len < chars.length) {
+                    int cw = fm.charWidth(chars[len]);
+                    if (w + cw > budget) break;
+                    w += cw;
+                    len++;
+                }
+                if (len > 0 && Character.isHighSurrogate(chars[len - 1])) len--;
+            }
+            measuredWith = fm;
+            measuredWidth = avail;
+            measuredLength = len;
+            return len;
+        }
+    }
+
+    private static final class RowData {
+        final int revision;
+        final long updatedAt;
+        final int flags;
+        final String query;
+        final boolean dark;
+        LineData title;
+        LineData snippet;
+        LineData meta;
+
+        RowData(Note n, String query, boolean dark) {
+            this.revision = n == null ? 0 : n.revision();
+            this.updatedAt = n == null ? 0L : n.updatedAt;
+            this.flags = n == null ? 0 : flagsOf(n);
+            this.query = query;
+            this.dark = dark;
+        }
+
+        boolean matches(Note n, String q, boolean d) {
+            return revision == n.revision()
+                    && updatedAt == n.updatedAt
+                    && flags == flagsOf(n)
+                    && dark == d
+                    && query.equals(q);
         }
-        out.append(escapedText.substring(from));
-        return out.toString();
     }
 }
@@ -0,0 +1,47 @@
+import javax.swing.AbstractListModel;
+import java.util.Collections;
+import java.util.List;
+
+public final class NoteListModel extends AbstractListModel<Note> {
+    private static final long serialVersionUID = 1L;
+
+    private List<Note> view = Collections.emptyList();
+    private int[] rows = null;
+    private int size = 0;
+
+    public void setRows(List<Note> view, int[] rows, int count) {
+        int old = size;
+        if (old > 0) {
+            this.size = 0;
+            fireIntervalRemoved(this, 0, old - 1);
+        }
+        this.view = view == null ? Collections.<Note>emptyList() : view;
+        this.rows = rows;
+        this.size = rows == null ? this.view.size() : count;
+        if (size > 0) fireIntervalAdded(this, 0, size - 1);
+    }
+
+    public void clear() {
+        setRows(null, null, 0);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Note getElementAt(int index) {
+        if (index < 0 || index >= size) return null;
+        return view.get(rows == null ? index : rows[index]);
+    }
+
+    public int indexOfId(String id) {
+        if (id == null) return -1;
+        for (int i = 0; i < size; i++) {
+            Note n = getElementAt(i);
+            if (n != null && id.equals(n.id)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,423 @@
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public final class NoteServer {
+    public static final int DEFAULT_PORT = 17800;
+    private static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+    private static final int QUEUE_LIMIT = 1024;
+
+    public interface Listener {
+        void changed(String id);
+        boolean isEditing(String id);
+    }
+
+    private final NoteStore store;
+    private final Listener listener;
+    private final String token;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private HttpServer server;
+    private ThreadPoolExecutor workers;
+    private final ReentrantReadWriteLock writeGate = new ReentrantReadWriteLock();
+    private volatile boolean paused;
+
+    public NoteServer(NoteStore store, Listener listener, String token) {
+        this.store = store;
+        this.listener = listener;
+        this.token = token;
+    }
+
+    public static String loadOrCreateToken(AppPaths paths) throws IOException {
+        Path file = paths.apiTokenFile;
+        if (Files.exists(file)) {
+            String t = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            if (t.length() >= 16) return t;
+        }
+        byte[] raw = new byte[24];
+        new SecureRandom().nextBytes(raw);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : raw) sb.append(String.format(Locale.ROOT, "%02x", b & 0xff));
+        Files.createDirectories(file.getParent());
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+
+    public synchronized void start(int port) throws IOException {
+        if (server != null) return;
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        final AtomicInteger seq = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_LIMIT), new ThreadFactory() {
+                    @Override public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "note-api-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        workers.allowCoreThreadTimeOut(true);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        server.setExecutor(workers);
+        server.createContext("/", new HttpHandler() {
+            @Override public void handle(HttpExchange ex) throws IOException {
+                try {
+                    dispatch(ex);
+                } catch (ApiException e) {
+                    sendError(ex, e.status, e.getMessage());
+                } catch (IOException e) {
+                    sendError(ex, 500, e.toString());
+                } catch (RuntimeException e) {
+                    sendError(ex, 500, e.toString());
+                } finally {
+                    ex.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        workers.shutdownNow();
+        server = null;
+        workers = null;
+    }
+
+    // Waits for writes already past the paused check, so nothing reaches the store once this returns.
+    public void setPaused(boolean paused) {
+        writeGate.writeLock().lock();
+        try {
+            this.paused = paused;
+        } finally {
+            writeGate.writeLock().unlock();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    public synchronized int port() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    private void dispatch(HttpExchange ex) throws IOException {
+        if (!ex.getRemoteAddress().getAddress().isLoopbackAddress()) throw new ApiException(403, "loopback only");
+        if (!authorized(ex)) throw new ApiException(401, "missing or invalid token");
+        if (paused) throw new ApiException(503, "restore in progress");
+
+        String method = ex.getRequestMethod().toUpperCase(Locale.ROOT);
+        String path = ex.getRequestURI().getPath();
+        Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+
+        if (path.equals("/notes") || path.equals("/notes/")) {
+            if (method.equals("GET")) {
+                sendJson(ex, 200, listNotes(q));
+                return;
+            }
+            if (method.equals("POST")) {
+                final JsonObject body = readJson(ex);
+                Object created = onStore(new Callable<Object>() {
+                    @Override public Object call() throws IOException {
+                        Note n = Note.createEmpty();
+                        Patch.parse(body).applyTo(n);
+                        List<Note> batch = new ArrayList<Note>();
+                        batch.add(n);
+                        store.addAll(batch);
+                        return full(n);
+                    }
+                });
+                notifyChanged(((Map<?, ?>) created).get("id").toString());
+                sendJson(ex, 201, created);
+                return;
+            }
+            throw new ApiException(405, "method not allowed");
+        }
+
+        if (path.startsWith("/notes/")) {
+            final String id = path.substring("/notes/".length());
+            if (id.isEmpty() || id.contains("/")) throw new ApiException(404, "not found");
+            if (method.equals("GET")) {
+                Note n = store.snapshot().get(id);
+                if (n == null) throw new ApiException(404, "not found");
+                sendJson(ex, 200, full(n));
+                return;
+            }
+            if (method.equals("PUT") || method.equals("PATCH")) {
+                final JsonObject body = readJson(ex);
+                Object n = onStore(new Callable<Object>() {
+                    @Override public Object call() throws IOException {
+                        final Patch patch = Patch.parse(body);
+                        Note n = store.mutate(id, patch.content != null, x -> {
+                            checkNotEditing(id);
+                            patch.applyTo(x);
+                        });
+                        return n == null ? null : full(n);
+                    }
+                });
+                if (n == null) throw new ApiException(404, "not found");
+                notifyChanged(id);
+                sendJson(ex, 200, n);
+                return;
+            }
+            if (method.equals("DELETE")) {
+                Boolean found = onStore(new Callable<Boolean>() {
+                    @Override public Boolean call() throws IOException {
+                        if (store.getById(id) == null) return false;
+                        checkNotEditing(id);
+                        store.moveToTrash(id);
+                        return true;
+                    }
+                });
+                if (!found) throw new ApiException(404, "not found");
+                notifyChanged(id);
+                sendJson(ex, 200, singleton("deleted", id));
+                return;
+            }
+            throw new ApiException(405, "method not allowed");
+        }
+
+        if (path.equals("/tags") && method.equals("GET")) {
+            final Set<NoteStore.Bucket> buckets = buckets(q.get("scope"));
+            sendJson(ex, 200, store.snapshot().tagCounts(buckets));
+            return;
+        }
+
+        throw new ApiException(404, "not found");
+    }
+
+    private Object listNotes(Map<String, String> q) {
+        String text = q.get("q");
+        String tag = q.get("tag");
+        Set<NoteStore.Bucket> buckets = buckets(q.get("scope"));
+        int limit = parseInt(q.get("limit"), 200);
+        boolean withContent = "true".equals(q.get("content"));
+        List<Map<String, Object>> out = new ArrayList<Map<String, Object>>();
+        for (Note n : store.snapshot().sorted()) {
+            if (out.size() >= limit) break;
+            if (!buckets.contains(NoteStore.bucketOf(n))) continue;
+            if (tag != null && !hasTag(n, tag)) continue;
+            if (!n.matchesQuery(text)) continue;
+            out.add(withContent ? full(n) : summary(n));
+        }
+        return out;
+    }
+
+    private <T> T onStore(Callable<T> task) throws IOException {
+        writeGate.readLock().lock();
+        try {
+            if (paused) throw new ApiException(503, "restore in progress");
+            return task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ApiException(500, e.toString());
+        } finally {
+            writeGate.readLock().unlock();
+        }
+    }
+
+    private void checkNotEditing(String id) {
+        if (listener != null && listener.isEditing(id)) throw new ApiException(409, "note has unsaved edits in the app");
+    }
+
+    private void notifyChanged(final String id) {
+        if (listener != null) listener.changed(id);
+    }
+
+    private boolean authorized(HttpExchange ex) {
+        String h = ex.getRequestHeaders().getFirst("Authorization");
+        String given = null;
+        if (h != null && h.regionMatches(true, 0, "Bearer ", 0, 7)) given = h.substring(7).trim();
+        if (given == null) given = ex.getRequestHeaders().getFirst("X-Api-Token");
+        if (given == null) return false;
+        return MessageDigest.isEqual(given.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private JsonObject readJson(HttpExchange ex) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        try (InputStream in = ex.getRequestBody()) {
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                bos.write(buf, 0, n);
+                if (bos.size() > MAX_BODY_BYTES) throw new ApiException(413, "body too large");
+            }
+        }
+        String s = new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        if (s.trim().isEmpty()) return new JsonObject();
+        JsonElement o;
+        try {
+            o = gson.fromJson(s, JsonElement.class);
+        } catch (JsonParseException e) {
+            throw new ApiException(400, "invalid json");
+        }
+        if (o == null || o.isJsonNull()) return new JsonObject();
+        if (!o.isJsonObject()) throw new ApiException(400, "body must be a json object");
+        return o.getAsJsonObject();
+    }
+
+    private void sendJson(HttpExchange ex, int status, Object value) throws IOException {
+        byte[] bytes = gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private void sendError(HttpExchange ex, int status, String message) {
+        try {
+            sendJson(ex, status, singleton("error", message));
+        } catch (IOException | RuntimeException ignored) {}
+    }
+
+    private static Map<String, Object> summary(Note n) {
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("id", n.id);
+        m.put("title", n.title());
+        m.put("snippet", n.snippet());
+        m.put("tags", n.tags == null ? new ArrayList<String>() : new ArrayList<String>(n.tags));
+        m.put("pinned", n.pinned);
+        m.put("archived", n.archived);
+        m.put("deleted", n.deleted);
+        m.put("createdAt", n.createdAt);
+        m.put("updatedAt", n.updatedAt);
+        return m;
+    }
+
+    private static Map<String, Object> full(Note n) {
+        Map<String, Object> m = summary(n);
+        m.put("content", n.content == null ? "" : n.content);
+        return m;
+    }
+
+    private static Map<String, Object> singleton(String key, Object value) {
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put(key, value);
+        return m;
+    }
+
+    private static Set<NoteStore.Bucket> buckets(String scope) {
+        if (scope == null || scope.equals("active")) return java.util.EnumSet.of(NoteStore.Bucket.ACTIVE);
+        if (scope.equals("archived")) return java.util.EnumSet.of(NoteStore.Bucket.ARCHIVED);
+        if (scope.equals("trash")) return java.util.EnumSet.of(NoteStore.Bucket.TRASH);
+        if (scope.equals("all")) return java.util.EnumSet.of(NoteStore.Bucket.ACTIVE, NoteStore.Bucket.ARCHIVED);
+        throw new ApiException(400, "unknown scope: " + scope);
+    }
+
+    private static boolean hasTag(Note n, String tag) {
+        if (n.tags == null) return false;
+        for (String t : n.tags) {
+            if (tag.equalsIgnoreCase(t)) return true;
+        }
+        return false;
+    }
+
+    private static String stringOf(JsonObject o, String key) {
+        if (o.get(key).isJsonNull()) return "";
+        if (!(o.get(key) instanceof JsonPrimitive)) throw new ApiException(400, key + " must be a string");
+        return o.get(key).getAsString();
+    }
+
+    private static boolean boolOf(JsonObject o, String key) {
+        JsonElement e = o.get(key);
+        if (!e.isJsonPrimitive() || !e.getAsJsonPrimitive().isBoolean()) throw new ApiException(400, key + " must be a boolean");
+        return e.getAsBoolean();
+    }
+
+    private static int parseInt(String s, int fallback) {
+        if (s == null) return fallback;
+        try {
+            return Math.max(0, Integer.parseInt(s.trim()));
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "invalid number: " + s);
+        }
+    }
+
+    private static Map<String, String> query(String raw) throws IOException {
+        Map<String, String> out = new HashMap<String, String>();
+        if (raw == null || raw.isEmpty()) return out;
+        for (String part : raw.split("&")) {
+            int eq = part.indexOf('=');
+            String k = eq < 0 ? part : part.substring(0, eq);
+            String v = eq < 0 ? "" : part.substring(eq + 1);
+            out.put(URLDecoder.decode(k, "UTF-8"), URLDecoder.decode(v, "UTF-8"));
+        }
+        return out;
+    }
+
+    private static final class Patch {
+        String content;
+        List<String> tags;
+        Boolean pinned;
+        Boolean archived;
+
+        static Patch parse(JsonObject body) {
+            Patch p = new Patch();
+            if (body.has("content")) p.content = stringOf(body, "content");
+            if (body.has("tags")) {
+                if (!body.get("tags").isJsonArray()) throw new ApiException(400, "tags must be an array");
+                p.tags = new ArrayList<String>();
+                for (JsonElement e : body.getAsJsonArray("tags")) {
+                    if (!e.isJsonPrimitive()) throw new ApiException(400, "tags must be strings");
+                    String t = NoteStore.normalizeTag(e.getAsString());
+                    if (t.length() > 0 && !p.tags.contains(t)) p.tags.add(t);
+                }
+            }
+            if (body.has("pinned")) p.pinned = boolOf(body, "pinned");
+            if (body.has("archived")) p.archived = boolOf(body, "archived");
+            return p;
+        }
+
+        void applyTo(Note n) {
+            if (content != null) n.setContent(content);
+            if (tags != null) n.setTags(tags);
+            if (pinned != null) n.pinned = pinned;
+            if (archived != null) n.archived = archived;
+        }
+    }
+
+    private static final class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -1,146 +1,522 @@
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonParseException;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public final class NoteStore {
+    public enum Bucket { ACTIVE, ARCHIVED, TRASH }
+
+    public interface Listener {
+        void notesChanged(Set<String> ids);
+    }
+
     private static final int MAX_HISTORY_FILES_PER_NOTE = 50;
+    private static final Comparator<Note> ORDER = new Comparator<Note>() {
+        @Override public int compare(Note a, Note b) {
+            if (a.pinned != b.pinned) return a.pinned ? -1 : 1;
+            if (a.updatedAt == b.updatedAt) return 0;
+            return a.updatedAt > b.updatedAt ? -1 : 1;
+        }
+    };
 
     private final AppPaths paths;
     private final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
     private final List<Note> notes = new ArrayList<Note>();
+    private final Map<String, Facet> facetByNote = new HashMap<String, Facet>();
+    private final Map<Bucket, Map<String, Integer>> tagCounts = new EnumMap<Bucket, Map<String, Integer>>(Bucket.class);
+    private final Set<String> changedTags = new LinkedHashSet<String>();
+    private long facetStamp = 0L;
+    private boolean facetsChanged = false;
+    private final Map<String, Note> byId = new HashMap<String, Note>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private static final Map<Path, DirLock> DIR_LOCKS = new HashMap<Path, DirLock>();
+    private DirLock dirLock;
+    private volatile Snapshot snapshot = new Snapshot(0L, Collections.<Note>emptyList(), Collections.<String, Note>emptyMap(),
+            Collections.<Bucket, Map<String, Integer>>emptyMap(), 0L);
+    private Snapshot synced = snapshot;
+    private List<Object> diskStamp = null;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
 
     public NoteStore(AppPaths paths) {
         this.paths = paths;
+        for (Bucket b : Bucket.values()) tagCounts.put(b, new HashMap<String, Integer>());
     }
 
     public void ensureLoaded() throws IOException {
-        Files.createDirectories(paths.appDir);
-        Files.createDirectories(paths.historyDir);
-
-        if (Files.exists(paths.notesFile)) {
-            loadFromJson();
-            if (!notes.isEmpty()) return;
-        }
-
-        if (Files.exists(paths.legacyNoteFile)) {
-            String legacy = readUtf8(paths.legacyNoteFile);
-            Note imported = Note.createEmpty();
-            imported.content = legacy == null ? "" : legacy;
-            imported.updatedAt = System.currentTimeMillis();
-            imported.createdAt = imported.updatedAt;
-            imported.tags.add("旧便签");
-            notes.add(imported);
+        lock.lock();
+        try {
+            Files.createDirectories(paths.appDir);
+            Files.createDirectories(paths.historyDir);
+
+            if (Files.exists(paths.notesFile)) {
+                loadFromJson();
+                if (!notes.isEmpty()) return;
+            }
+
+            if (Files.exists(paths.legacyNoteFile)) {
+                String legacy = readUtf8(paths.legacyNoteFile);
+                Note imported = Note.createEmpty();
+                imported.setContent(legacy == null ? "" : legacy);
+                imported.updatedAt = System.currentTimeMillis();
+                imported.createdAt = imported.updatedAt;
+                imported.tags.add("旧便签");
+                imported.markChanged();
+                addNote(imported);
+                saveAll();
+                return;
+            }
+
+            addNote(Note.createEmpty());
             saveAll();
-            return;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        notes.add(Note.createEmpty());
-        saveAll();
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    public void reloadFromDisk() throws IOException {
+        Set<String> changed;
+        lock.lock();
+        try {
+            if (!Files.exists(paths.notesFile) || stampOf(paths.notesFile).equals(diskStamp)) return;
+            changed = mergeFromDisk();
+            if (changed.isEmpty()) return;
+            publish();
+            synced = snapshot;
+        } finally {
+            lock.unlock();
+        }
+        fireChanged(changed);
     }
 
     public List<Note> getAll() {
-        return notes;
+        return snapshot.notes;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public List<Note> sortedView() {
+        return snapshot.sorted();
     }
 
     public Note getById(String id) {
-        if (id == null) return null;
-        for (int i = 0; i < notes.size(); i++) {
-            Note n = notes.get(i);
-            if (id.equals(n.id)) return n;
+        return snapshot.get(id);
+    }
+
+    public Note mutate(String id, boolean writeHistory, Consumer<Note> change) throws IOException {
+        lock.lock();
+        try {
+            Note n = byId.get(id);
+            if (n == null) return null;
+            change.accept(n);
+            n.markChanged();
+            updateNote(n, writeHistory);
+            return snapshot.get(id);
+        } finally {
+            lock.unlock();
         }
-        return null;
     }
 
     public Note createNote() throws IOException {
-        Note n = Note.createEmpty();
-        notes.add(n);
-        saveAll();
-        return n;
+        lock.lock();
+        try {
+            Note n = Note.createEmpty();
+            addNote(n);
+            saveAll();
+            return snapshot.get(n.id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void addAll(List<Note> batch) throws IOException {
+        lock.lock();
+        try {
+            if (batch == null || batch.isEmpty()) return;
+            for (Note n : batch) {
+                if (n == null || n.id == null) continue;
+                if (n.tags == null) n.tags = new ArrayList<String>();
+                addNote(n);
+            }
+            saveAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void moveToTrash(String id) throws IOException {
-        if (id == null) return;
-        Note n = getById(id);
-        if (n != null && !n.deleted) {
-            n.deleted = true;
-            n.deletedAt = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (id == null) return;
+            Note n = byId.get(id);
+            if (n != null && !n.deleted) {
+                n.deleted = true;
+                n.deletedAt = System.currentTimeMillis();
+                n.markChanged();
+                reindex(n);
+            }
+            saveAll();
+        } finally {
+            lock.unlock();
         }
-        saveAll();
     }
 
     public void restoreFromTrash(String id) throws IOException {
-        if (id == null) return;
-        Note n = getById(id);
-        if (n != null && n.deleted) {
-            n.deleted = false;
-            n.deletedAt = 0L;
-            n.updatedAt = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (id == null) return;
+            Note n = byId.get(id);
+            if (n != null && n.deleted) {
+                n.deleted = false;
+                n.deletedAt = 0L;
+                n.updatedAt = System.currentTimeMillis();
+                n.markChanged();
+                reindex(n);
+            }
+            saveAll();
+        } finally {
+            lock.unlock();
         }
-        saveAll();
     }
 
     public void deletePermanently(String id) throws IOException {
-        if (id == null) return;
-        for (int i = 0; i < notes.size(); i++) {
-            if (id.equals(notes.get(i).id)) {
-                notes.remove(i);
-                break;
+        lock.lock();
+        try {
+            if (id == null) return;
+            for (int i = 0; i < notes.size(); i++) {
+                if (id.equals(notes.get(i).id)) {
+                    notes.remove(i);
+                    byId.remove(id);
+                    unindex(id);
+                    break;
+                }
             }
+            if (notes.isEmpty()) addNote(Note.createEmpty());
+            saveAll();
+        } finally {
+            lock.unlock();
         }
-        if (notes.isEmpty()) notes.add(Note.createEmpty());
-        saveAll();
     }
 
     public void emptyTrash() throws IOException {
-        for (int i = notes.size() - 1; i >= 0; i--) {
-            Note n = notes.get(i);
-            if (n != null && n.deleted) notes.remove(i);
+        lock.lock();
+        try {
+            for (int i = notes.size() - 1; i >= 0; i--) {
+                Note n = notes.get(i);
+                if (n != null && n.deleted) {
+                    notes.remove(i);
+                    byId.remove(n.id);
+                    unindex(n.id);
+                }
+            }
+            if (notes.isEmpty()) addNote(Note.createEmpty());
+            saveAll();
+        } finally {
+            lock.unlock();
         }
-        if (notes.isEmpty()) notes.add(Note.createEmpty());
-        saveAll();
     }
 
-    public void updateNote(Note note, boolean writeHistory) throws IOException {
-        if (note == null) return;
-        if (note.deleted) {
+    private void updateNote(Note note, boolean writeHistory) throws IOException {
+        lock.lock();
+        try {
+            if (note == null) return;
+            note.markChanged();
+            reindex(note);
+            if (note.deleted) {
+                saveAll();
+                return;
+            }
+            note.updatedAt = System.currentTimeMillis();
+            if (writeHistory) writeHistorySnapshot(note);
             saveAll();
-            return;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public TextMerge.Result saveEdit(String id, String base, String edited, boolean writeHistory) throws IOException {
+        lock.lock();
+        try {
+            Note note = byId.get(id);
+            if (note == null) return null;
+            String current = safeString(note.content);
+            TextMerge.Result result;
+            if (current.equals(base) || current.equals(edited)) {
+                result = new TextMerge.Result(edited, 0);
+            } else {
+                writeHistorySnapshot(note);
+                result = TextMerge.merge(base, edited, current, "本机", "外部修改");
+            }
+            note.setContent(result.text);
+            updateNote(note, writeHistory);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int mutateAll(Collection<String> ids, Predicate<Note> change) throws IOException {
+        lock.lock();
+        try {
+            int changed = 0;
+            long now = System.currentTimeMillis();
+            for (String id : ids) {
+                Note n = byId.get(id);
+                if (n == null || !change.test(n)) continue;
+                n.markChanged();
+                reindex(n);
+                if (!n.deleted) n.updatedAt = now;
+                changed++;
+            }
+            if (changed > 0) saveAll();
+            return changed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // upserts and removals were computed against basis; a note edited here since then keeps the
+    // local edit, merged with the incoming text, and is not removed.
+    public void applyExternal(List<Note> upserts, Collection<String> removals, Snapshot basis) throws IOException {
+        Set<String> changed = new LinkedHashSet<String>();
+        lock.lock();
+        try {
+            for (Note n : upserts) {
+                Note local = byId.get(n.id);
+                Note base = basis.get(n.id);
+                if (local != null && base != null && local.revision() != base.revision()) {
+                    writeHistorySnapshot(local);
+                    String mine = safeString(local.content);
+                    local.copyStateFrom(n);
+                    local.setContent(TextMerge.merge(safeString(base.content), mine, safeString(n.content), "本机", "同步").text);
+                    reindex(local);
+                } else if (local != null) {
+                    local.copyStateFrom(n);
+                    reindex(local);
+                } else {
+                    Note copy = new Note();
+                    copy.id = n.id;
+                    copy.copyStateFrom(n);
+                    addNote(copy);
+                }
+                changed.add(n.id);
+            }
+            for (String id : removals) {
+                Note local = byId.get(id);
+                Note base = basis.get(id);
+                if (local == null || base != null && local.revision() != base.revision()) continue;
+                byId.remove(id);
+                notes.remove(local);
+                unindex(id);
+                changed.add(id);
+            }
+            if (changed.isEmpty()) return;
+            if (notes.isEmpty()) addNote(Note.createEmpty());
+            saveAll();
+        } finally {
+            lock.unlock();
+        }
+        fireChanged(changed);
+    }
+
+    public void recordHistory(Note note) {
+        lock.lock();
+        try {
+            List<Path> files = listHistoryFiles(note.id);
+            if (!files.isEmpty()) {
+                try {
+                    if (safeString(note.content).equals(readUtf8(files.get(0)))) return;
+                } catch (IOException ignored) {}
+            }
+            writeHistorySnapshot(note);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int purgeTrashBefore(long cutoff) throws IOException {
+        lock.lock();
+        try {
+            int removed = 0;
+            for (int i = notes.size() - 1; i >= 0; i--) {
+                Note n = notes.get(i);
+                if (n != null && n.deleted && n.deletedAt < cutoff) {
+                    notes.remove(i);
+                    byId.remove(n.id);
+                    unindex(n.id);
+                    removed++;
+                }
+            }
+            if (notes.isEmpty()) addNote(Note.createEmpty());
+            saveAll();
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int deleteOrphanHistory() throws IOException {
+        lock.lock();
+        try {
+            if (!Files.isDirectory(paths.historyDir)) return 0;
+            Set<String> live = new HashSet<String>();
+            for (Note n : notes) live.add(n.id);
+            List<Path> orphans = new ArrayList<Path>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(paths.historyDir)) {
+                for (Path p : ds) {
+                    if (Files.isDirectory(p) && !live.contains(p.getFileName().toString())) orphans.add(p);
+                }
+            }
+            for (Path dir : orphans) {
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                    for (Path f : ds) Files.deleteIfExists(f);
+                }
+                Files.deleteIfExists(dir);
+            }
+            return orphans.size();
+        } finally {
+            lock.unlock();
         }
-        note.updatedAt = System.currentTimeMillis();
-        if (writeHistory) writeHistorySnapshot(note);
-        saveAll();
     }
 
-    public Set<String> collectTags(boolean includeArchived, boolean includeDeleted) {
-        Set<String> tags = new HashSet<String>();
+    public Map<String, Integer> tagCounts(Set<Bucket> buckets) {
+        return snapshot.tagCounts(buckets);
+    }
+
+    public int tagCount(String tag, Set<Bucket> buckets) {
+        return snapshot.tagCount(tag, buckets);
+    }
+
+    public long facetStamp() {
+        return snapshot.facetStamp;
+    }
+
+    public Set<String> takeChangedTags() {
+        lock.lock();
+        try {
+            Set<String> out = new HashSet<String>(changedTags);
+            changedTags.clear();
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static Bucket bucketOf(Note n) {
+        if (n.deleted) return Bucket.TRASH;
+        return n.archived ? Bucket.ARCHIVED : Bucket.ACTIVE;
+    }
+
+    private void addNote(Note n) {
+        notes.add(n);
+        byId.put(n.id, n);
+        reindex(n);
+    }
+
+    private void publish() {
+        Snapshot prev = snapshot;
+        List<Note> copies = new ArrayList<Note>(notes.size());
+        Map<String, Note> index = new HashMap<String, Note>(notes.size() * 2);
         for (int i = 0; i < notes.size(); i++) {
             Note n = notes.get(i);
-            if (!includeDeleted && n.deleted) continue;
-            if (!includeArchived && n.archived) continue;
-            if (n.tags == null) continue;
-            for (int t = 0; t < n.tags.size(); t++) {
-                String tag = normalizeTag(n.tags.get(t));
-                if (tag.length() > 0) tags.add(tag);
+            Note c = n.freeze(prev.byId.get(n.id));
+            copies.add(c);
+            index.put(c.id, c);
+        }
+        Map<Bucket, Map<String, Integer>> counts = prev.counts;
+        if (facetsChanged || counts.isEmpty()) {
+            counts = new EnumMap<Bucket, Map<String, Integer>>(Bucket.class);
+            for (Map.Entry<Bucket, Map<String, Integer>> e : tagCounts.entrySet()) {
+                counts.put(e.getKey(), Collections.unmodifiableMap(new HashMap<String, Integer>(e.getValue())));
             }
+            facetsChanged = false;
         }
-        return tags;
+        snapshot = new Snapshot(prev.version + 1, Collections.unmodifiableList(copies), index, counts, facetStamp);
+    }
+
+    private void reindex(Note n) {
+        if (n == null || n.id == null) return;
+        Facet next = new Facet(bucketOf(n), normalizedTags(n));
+        Facet prev = facetByNote.put(n.id, next);
+        if (prev != null && prev.bucket == next.bucket && Arrays.equals(prev.tags, next.tags)) return;
+        if (prev != null) applyFacet(prev, -1);
+        applyFacet(next, 1);
+    }
+
+    private void unindex(String id) {
+        Facet prev = facetByNote.remove(id);
+        if (prev != null) applyFacet(prev, -1);
+    }
+
+    private void rebuildFacets() {
+        facetByNote.clear();
+        for (Map<String, Integer> m : tagCounts.values()) m.clear();
+        changedTags.clear();
+        for (int i = 0; i < notes.size(); i++) reindex(notes.get(i));
+        changedTags.clear();
+        facetStamp++;
+        facetsChanged = true;
+    }
+
+    private void applyFacet(Facet f, int delta) {
+        Map<String, Integer> counts = tagCounts.get(f.bucket);
+        for (int i = 0; i < f.tags.length; i++) {
+            String tag = f.tags[i];
+            Integer prev = counts.get(tag);
+            int next = (prev == null ? 0 : prev) + delta;
+            if (next <= 0) counts.remove(tag);
+            else counts.put(tag, next);
+            changedTags.add(tag);
+            facetsChanged = true;
+        }
+    }
+
+    private static String[] normalizedTags(Note n) {
+        if (n.tags == null || n.tags.isEmpty()) return new String[0];
+        Set<String> set = new LinkedHashSet<String>();
+        for (int i = 0; i < n.tags.size(); i++) {
+            String tag = normalizeTag(n.tags.get(i));
+            if (tag.length() > 0) set.add(tag);
+        }
+        String[] out = set.toArray(new String[0]);
+        Arrays.sort(out);
+        return out;
     }
 
     public List<Path> listHistoryFiles(String noteId) {
@@ -163,28 +539,143 @@ public final class NoteStore {
     }
 
     public void saveAll() throws IOException {
-        Files.createDirectories(paths.appDir);
-        String json = gson.toJson(notes);
+        Set<String> merged = Collections.emptySet();
+        lock.lock();
+        try {
+            Files.createDirectories(paths.appDir);
+            DirLock dirLock = dirLock();
+            synchronized (dirLock) {
+                if (Files.exists(paths.notesFile) && !stampOf(paths.notesFile).equals(diskStamp)) merged = mergeFromDisk();
+                publish();
 
-        Path tmp = paths.notesFile.resolveSibling("notes.json.tmp");
-        Path bak = paths.notesFile.resolveSibling("notes.json.bak");
+                Path tmp = paths.notesFile.resolveSibling("notes.json.tmp");
+                Path bak = paths.notesFile.resolveSibling("notes.json.bak");
+
+                if (Files.exists(paths.notesFile)) {
+                    try {
+                        Files.copy(paths.notesFile, bak, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException ignored) {}
+                }
 
-        if (Files.exists(paths.notesFile)) {
-            try {
-                Files.copy(paths.notesFile, bak, StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException ignored) {}
+                try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    gson.toJson(notes, out);
+                } catch (JsonIOException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                Files.move(tmp, paths.notesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                synced = snapshot;
+                diskStamp = stampOf(paths.notesFile);
+            }
+        } finally {
+            lock.unlock();
         }
+        if (!merged.isEmpty()) fireChanged(merged);
+    }
 
-        Files.write(tmp, json.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        Files.move(tmp, paths.notesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    // One writer process per data directory: the OS lock is taken on the first save and held until exit.
+    // Stores in the same JVM share it and serialize their writes on it.
+    private DirLock dirLock() throws IOException {
+        if (dirLock != null && dirLock.lock.isValid()) return dirLock;
+        Path key = paths.lockFile.toAbsolutePath().normalize();
+        synchronized (DIR_LOCKS) {
+            DirLock d = DIR_LOCKS.get(key);
+            if (d == null || !d.lock.isValid()) {
+                FileChannel channel = FileChannel.open(key, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock fileLock;
+                try {
+                    fileLock = channel.tryLock();
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                if (fileLock == null) {
+                    channel.close();
+                    throw new IOException("Data directory is in use by another process: " + paths.appDir);
+                }
+                d = new DirLock(fileLock);
+                DIR_LOCKS.put(key, d);
+            }
+            dirLock = d;
+            return d;
+        }
+    }
+
+    private static final class DirLock {
+        final FileLock lock;
+
+        DirLock(FileLock lock) {
+            this.lock = lock;
+        }
+    }
+
+    private Set<String> mergeFromDisk() throws IOException {
+        List<Object> stamp = stampOf(paths.notesFile);
+        Note[] arr;
+        try {
+            arr = gson.fromJson(readUtf8(paths.notesFile), Note[].class);
+        } catch (JsonParseException e) {
+            throw new IOException("notes.json was changed outside the app and cannot be parsed, not overwriting it: " + e.getMessage(), e);
+        }
+        diskStamp = stamp;
+        if (arr == null) return Collections.emptySet();
+
+        Set<String> changed = new LinkedHashSet<String>();
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < arr.length; i++) {
+            Note d = arr[i];
+            if (d == null || d.id == null) continue;
+            if (d.tags == null) d.tags = new ArrayList<String>();
+            if (d.deletedAt < 0L) d.deletedAt = 0L;
+            seen.add(d.id);
+            Note base = synced.get(d.id);
+            if (d.sameState(base)) continue;
+            Note local = byId.get(d.id);
+            if (local == null) {
+                addNote(d);
+                changed.add(d.id);
+                continue;
+            }
+            if (local.sameState(d)) continue;
+            boolean editedHere = base == null || local.revision() != base.revision();
+            if (editedHere && local.updatedAt >= d.updatedAt) {
+                writeHistorySnapshot(d);
+                continue;
+            }
+            if (editedHere) writeHistorySnapshot(local);
+            local.copyStateFrom(d);
+            reindex(local);
+            changed.add(d.id);
+        }
+        for (Note base : synced.notes) {
+            if (seen.contains(base.id)) continue;
+            Note local = byId.get(base.id);
+            if (local == null || local.revision() != base.revision()) continue;
+            notes.remove(local);
+            byId.remove(base.id);
+            unindex(base.id);
+            changed.add(base.id);
+        }
+        return changed;
+    }
+
+    private void fireChanged(Set<String> ids) {
+        Set<String> view = Collections.unmodifiableSet(ids);
+        for (Listener l : listeners) l.notesChanged(view);
+    }
+
+    private static List<Object> stampOf(Path file) throws IOException {
+        BasicFileAttributes a = Files.readAttributes(file, BasicFileAttributes.class);
+        return Arrays.<Object>asList(a.size(), a.lastModifiedTime().toMillis(), a.fileKey());
     }
 
     private void loadFromJson() throws IOException {
         try {
+            List<Object> stamp = stampOf(paths.notesFile);
             String json = readUtf8(paths.notesFile);
             if (json == null || json.trim().length() == 0) return;
             Note[] arr = gson.fromJson(json, Note[].class);
             notes.clear();
+            byId.clear();
             if (arr != null) {
                 for (int i = 0; i < arr.length; i++) {
                     Note n = arr[i];
@@ -192,8 +683,13 @@ public final class NoteStore {
                     if (n.tags == null) n.tags = new ArrayList<String>();
                     if (n.deletedAt < 0L) n.deletedAt = 0L;
                     notes.add(n);
+                    byId.put(n.id, n);
                 }
             }
+            rebuildFacets();
+            publish();
+            synced = snapshot;
+            diskStamp = stamp;
         } catch (JsonParseException e) {
             // Keep empty; caller will handle fallback creation.
         }
@@ -206,7 +702,10 @@ public final class NoteStore {
             Files.createDirectories(dir);
             String ts = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ROOT).format(new Date(System.currentTimeMillis()));
             Path file = dir.resolve(ts + ".txt");
-            Files.write(file, safeString(note.content).getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+            for (int i = 1; Files.exists(file) && i < 10; i++) file = dir.resolve(ts + "_" + i + ".txt");
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW)) {
+                out.write(safeString(note.content));
+            }
             trimHistory(dir);
         } catch (IOException ignored) {}
     }
@@ -243,4 +742,70 @@ public final class NoteStore {
     private static String safeString(String s) {
         return s == null ? "" : s;
     }
+
+    // Safe to read from any thread; the notes are frozen copies, changes go through mutate().
+    public static final class Snapshot {
+        public final long version;
+        public final List<Note> notes;
+        public final long facetStamp;
+        private final Map<String, Note> byId;
+        private final Map<Bucket, Map<String, Integer>> counts;
+        private volatile List<Note> sorted;
+
+        Snapshot(long version, List<Note> notes, Map<String, Note> byId, Map<Bucket, Map<String, Integer>> counts, long facetStamp) {
+            this.version = version;
+            this.notes = notes;
+            this.byId = byId;
+            this.counts = counts;
+            this.facetStamp = facetStamp;
+        }
+
+        public Note get(String id) {
+            return id == null ? null : byId.get(id);
+        }
+
+        public List<Note> sorted() {
+            List<Note> s = sorted;
+            if (s == null) {
+                List<Note> copy = new ArrayList<Note>(notes);
+                Collections.sort(copy, ORDER);
+                s = Collections.unmodifiableList(copy);
+                sorted = s;
+            }
+            return s;
+        }
+
+        public Map<String, Integer> tagCounts(Set<Bucket> buckets) {
+            Map<String, Integer> out = new HashMap<String, Integer>();
+            for (Bucket b : buckets) {
+                Map<String, Integer> m = counts.get(b);
+                if (m == null) continue;
+                for (Map.Entry<String, Integer> e : m.entrySet()) {
+                    Integer prev = out.get(e.getKey());
+                    out.put(e.getKey(), prev == null ? e.getValue() : prev + e.getValue());
+                }
+            }
+            return out;
+        }
+
+        public int tagCount(String tag, Set<Bucket> buckets) {
+            int count = 0;
+            for (Bucket b : buckets) {
+                Map<String, Integer> m = counts.get(b);
+                Integer c = m == null ? null : m.get(tag);
+                if (c != null) count += c;
+            }
+            return count;
+        }
+    }
+
+    private static final class Facet {
+        final Bucket bucket;
+        final String[] tags;
+
+        Facet(Bucket bucket, String[] tags) {
+            this.bucket = bucket;
+            this.tags = tags;
+        }
+    }
 }
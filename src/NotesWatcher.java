@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+public final class NotesWatcher {
+    private static final long SETTLE_MS = 200L;
+    private static final long MAX_DELAY_MS = 1000L;
+
+    private final AppPaths paths;
+    private final Runnable onChange;
+    private WatchService service;
+    private Thread thread;
+
+    public NotesWatcher(AppPaths paths, Runnable onChange) {
+        this.paths = paths;
+        this.onChange = onChange;
+    }
+
+    public synchronized void start() throws IOException {
+        if (service != null) return;
+        final WatchService ws = paths.appDir.getFileSystem().newWatchService();
+        try {
+            paths.appDir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            ws.close();
+            throw e;
+        }
+        service = ws;
+        thread = new Thread(() -> loop(ws), "notes-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (service == null) return;
+        try {
+            service.close();
+        } catch (IOException ignored) {}
+        thread.interrupt();
+        service = null;
+        thread = null;
+    }
+
+    private void loop(WatchService ws) {
+        try {
+            while (true) {
+                boolean hit = drain(ws.take());
+                long deadline = System.currentTimeMillis() + MAX_DELAY_MS;
+                WatchKey more;
+                while (System.currentTimeMillis() < deadline && (more = ws.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    hit |= drain(more);
+                }
+                if (hit) onChange.run();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException stopped) {}
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean hit = false;
+        for (WatchEvent<?> e : key.pollEvents()) {
+            if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                hit = true;
+            } else {
+                Path name = (Path) e.context();
+                if (name != null && name.equals(paths.notesFile.getFileName())) hit = true;
+            }
+        }
+        key.reset();
+        return hit;
+    }
+}
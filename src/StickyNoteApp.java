@@ -1,4 +1,5 @@
 import com.formdev.flatlaf.FlatDarkLaf;
+import com.formdev.flatlaf.FlatLaf;
 import com.formdev.flatlaf.FlatLightLaf;
 
 import javax.swing.*;
@@ -6,6 +7,12 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultCaret;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
@@ -13,33 +20,80 @@ import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class StickyNoteApp {
     private enum Theme { SYSTEM, LIGHT, DARK }
     private enum Scope { ACTIVE, ARCHIVED, ALL, TRASH }
     private enum EditorMode { EDIT, SPLIT, PREVIEW }
 
+    private interface RestoreTask {
+        void run() throws IOException;
+    }
+
+    // One per note loaded into the editor. base is the text the last save started from; only the saver thread
+    // touches it after construction.
+    private static final class EditSession {
+        final String noteId;
+        final AbstractDocument doc;
+        String base;
+
+        EditSession(String noteId, AbstractDocument doc, String base) {
+            this.noteId = noteId;
+            this.doc = doc;
+            this.base = base;
+        }
+    }
+
+    private static final class Saved {
+        final EditSession session;
+        final boolean edited;
+        long seq;
+        String text;
+        TextMerge.Result result;
+        Throwable error;
+        boolean handled;
+
+        Saved(EditSession session, boolean edited) {
+            this.session = session;
+            this.edited = edited;
+        }
+    }
+
+    private static final int LARGE_NOTE_CHARS = 256 * 1024;
+    private static final int LOAD_CHUNK_CHARS = 64 * 1024;
+
     private final AppPaths paths = new AppPaths();
     private final AppConfig config = new AppConfig(paths.configFile);
     private final NoteStore store = new NoteStore(paths);
-    private final MarkdownPreview markdownPreview = new MarkdownPreview();
+    private final FirstScreenCache firstScreen = new FirstScreenCache(paths);
+    private MarkdownPreview markdownPreview;
 
-    private final DefaultListModel<Note> listModel = new DefaultListModel<Note>();
+    private final NoteListModel listModel = new NoteListModel();
     private final JList<Note> noteList = new JList<Note>(listModel);
-    private final JTextArea editor = new JTextArea();
+    private final NoteListCellRenderer noteRenderer = new NoteListCellRenderer();
+    private final JTextArea editor = new JTextArea() {
+        @Override public void updateUI() {
+            if (UIManager.getLookAndFeel() instanceof FlatLaf) setUI(new LazyWrapView.UI());
+            else super.updateUI();
+        }
+    };
     private final JEditorPane previewPane = new JEditorPane();
     private final JTextField searchField = new JTextField();
     private final JComboBox<Scope> scopeBox = new JComboBox<Scope>(Scope.values());
@@ -50,6 +104,36 @@ public final class StickyNoteApp {
     private final Timer previewTimer;
     private final Timer searchTimer;
     private final UndoManager undoManager = new UndoManager();
+    private final TextStats textStats = new TextStats();
+    private final BackupManager backups = new BackupManager(paths);
+    private final ExecutorService backupExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "backup");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final AtomicBoolean backupRunning = new AtomicBoolean();
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "note-saver");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final DocumentListener editorListener = new DocumentListener() {
+        @Override public void insertUpdate(DocumentEvent e) { onEditorChanged(); }
+        @Override public void removeUpdate(DocumentEvent e) { onEditorChanged(); }
+        @Override public void changedUpdate(DocumentEvent e) { onEditorChanged(); }
+    };
+    private boolean restoring = false;
+    private boolean booting = false;
+    private NoteServer apiServer;
+    private NotesWatcher notesWatcher;
+    private SyncEngine syncEngine;
+    private boolean syncing = false;
+    private JCheckBoxMenuItem apiMenuItem;
+    private JToolBar toolbar;
 
     private JFrame frame;
     private JSplitPane splitPane;
@@ -63,9 +147,21 @@ public final class StickyNoteApp {
     private JButton addTagButton;
     private boolean suppressEditorTabEvents = false;
     private boolean suppressDocEvents = false;
-    private boolean dirty = false;
-    private String currentNoteId = null;
+    private boolean suppressTagEvents = false;
+    private Scope facetScope = null;
+    private long facetStamp = -1L;
+    private Map<String, Integer> facetCounts = Collections.emptyMap();
+    // Volatile because the API server asks isEditing() from its worker threads.
+    private volatile boolean dirty = false;
+    private volatile String currentNoteId = null;
+    private EditSession session;
+    private volatile long editSeq = 0L;
     private long lastSnapshotAt = 0L;
+    private Timer chunkLoader;
+    private String pendingText;
+    private int pendingPos;
+
+    private static final boolean LOG_STARTUP = Boolean.getBoolean("stickynote.startupLog");
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(new Runnable() {
@@ -83,7 +179,7 @@ public final class StickyNoteApp {
     public StickyNoteApp() {
         autoSaveTimer = new Timer(750, new ActionListener() {
             @Override public void actionPerformed(ActionEvent e) {
-                saveIfDirty(false);
+                saveInBackground();
             }
         });
         autoSaveTimer.setRepeats(false);
@@ -104,19 +200,22 @@ public final class StickyNoteApp {
     }
 
     private void start() throws IOException {
+        BackupArchive.recover(paths);
         config.load();
         Theme t = Theme.valueOf(config.getString("theme", Theme.SYSTEM.name()));
         applyTheme(t);
 
-        store.ensureLoaded();
-
         frame = new JFrame("便签");
         frame.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
         frame.setMinimumSize(new Dimension(900, 560));
 
+        booting = true;
         initUi();
-        reloadFiltersAndList();
+        setInteractive(false);
+        List<Note> cached = firstScreen.read();
+        listModel.setRows(cached, null, cached.size());
         restoreWindowConfig();
+        statusLeft.setText("正在加载…");
 
         frame.addWindowListener(new WindowAdapter() {
             @Override public void windowClosing(WindowEvent e) {
@@ -132,14 +231,118 @@ public final class StickyNoteApp {
         });
 
         frame.setVisible(true);
+        logStartup("first screen (" + cached.size() + " cached rows)");
+
+        new SwingWorker<Void, Void>() {
+            @Override protected Void doInBackground() throws IOException {
+                store.ensureLoaded();
+                logStartup("store loaded (" + store.getAll().size() + " notes)");
+                return null;
+            }
+
+            @Override protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Throwable c = e.getCause() == null ? e : e.getCause();
+                    c.printStackTrace();
+                    JOptionPane.showMessageDialog(frame, c.toString(), "StickyNoteApp Error", JOptionPane.ERROR_MESSAGE);
+                    frame.dispose();
+                    System.exit(1);
+                    return;
+                }
+                onStoreReady();
+            }
+        }.execute();
+    }
+
+    private void onStoreReady() {
+        booting = false;
+        setInteractive(true);
+        refreshTagFacets((Scope) scopeBox.getSelectedItem());
+        reloadListOnlyPreserveSelection(config.getString("lastNoteId", null));
+
+        int backupMinutes = config.getInt("autoBackupMinutes", 30);
+        if (backupMinutes > 0) {
+            Timer backupTimer = new Timer(backupMinutes * 60 * 1000, e -> runIncrementalBackup(false));
+            backupTimer.start();
+        }
+
+        int syncMinutes = config.getInt("autoSyncMinutes", 10);
+        if (syncMinutes > 0) {
+            Timer syncTimer = new Timer(syncMinutes * 60 * 1000, e -> runSync(false));
+            syncTimer.start();
+        }
+
+        store.addListener(ids -> SwingUtilities.invokeLater(() -> onNotesChangedOnDisk(ids)));
+        notesWatcher = new NotesWatcher(paths, () -> SwingUtilities.invokeLater(this::reloadFromDisk));
+        startNotesWatcher();
+
+        if (config.getBool("apiEnabled", false)) setApiEnabled(true, false);
         focusEditor();
+        logStartup("interactive");
+
+        final List<Note> rows = FirstScreenCache.snapshot(store.sortedView());
+        Thread warm = new Thread(() -> {
+            firstScreen.write(rows);
+            new MarkdownRenderer().render("# warm\n\n*a* `b` ~~c~~\n\n| x |\n|---|\n| y |\n");
+            SwingUtilities.invokeLater(() -> {
+                markdownPreview();
+                renderPreviewIfVisible();
+                logStartup("markdown ready");
+            });
+        }, "startup-warmup");
+        warm.setDaemon(true);
+        warm.start();
+    }
+
+    private void setInteractive(boolean on) {
+        JMenuBar mb = frame.getJMenuBar();
+        if (mb != null) {
+            for (int i = 0; i < mb.getMenuCount(); i++) {
+                JMenu m = mb.getMenu(i);
+                if (m == null) continue;
+                m.setEnabled(on);
+                for (int j = 0; j < m.getItemCount(); j++) {
+                    JMenuItem it = m.getItem(j);
+                    if (it != null) it.setEnabled(on);
+                }
+            }
+        }
+        if (toolbar != null) {
+            for (Component c : toolbar.getComponents()) c.setEnabled(on);
+        }
+        searchField.setEnabled(on);
+        scopeBox.setEnabled(on);
+        tagBox.setEnabled(on);
+        noteList.setEnabled(on);
+        editor.setEnabled(on);
+        if (!on) editor.setEditable(false);
+        if (addTagButton != null) addTagButton.setEnabled(on);
+        frame.setCursor(on ? Cursor.getDefaultCursor() : Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+    }
+
+    private MarkdownPreview markdownPreview() {
+        if (markdownPreview == null) markdownPreview = new MarkdownPreview();
+        return markdownPreview;
+    }
+
+    // Timed from JVM start, so the time spent before main() runs is included.
+    private static void logStartup(String phase) {
+        if (!LOG_STARTUP) return;
+        long ms = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.err.println("[startup] " + phase + ": " + ms + " ms");
     }
 
     private void initUi() {
         frame.setJMenuBar(createMenuBar());
 
         JPanel root = new JPanel(new BorderLayout());
-        root.add(createToolbar(), BorderLayout.NORTH);
+        toolbar = createToolbar();
+        root.add(toolbar, BorderLayout.NORTH);
 
         splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, createLeftPanel(), createEditorPanel());
         splitPane.setContinuousLayout(true);
@@ -149,7 +352,8 @@ public final class StickyNoteApp {
 
         frame.setContentPane(root);
 
-        noteList.setCellRenderer(new NoteListCellRenderer());
+        noteList.setCellRenderer(noteRenderer);
+        updateListCellSize();
         noteList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         noteList.addListSelectionListener(new ListSelectionListener() {
             @Override public void valueChanged(ListSelectionEvent e) {
@@ -164,11 +368,20 @@ public final class StickyNoteApp {
         editor.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 15));
         editor.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
         editor.getDocument().addUndoableEditListener(undoManager);
-        editor.getDocument().addDocumentListener(new DocumentListener() {
-            @Override public void insertUpdate(DocumentEvent e) { onEditorChanged(); }
-            @Override public void removeUpdate(DocumentEvent e) { onEditorChanged(); }
-            @Override public void changedUpdate(DocumentEvent e) { onEditorChanged(); }
+        editor.getDocument().addDocumentListener(editorListener);
+        editor.addPropertyChangeListener("document", evt -> {
+            Document old = (Document) evt.getOldValue();
+            Document next = (Document) evt.getNewValue();
+            if (old != null) {
+                old.removeUndoableEditListener(undoManager);
+                old.removeDocumentListener(editorListener);
+            }
+            if (next != null) {
+                next.addUndoableEditListener(undoManager);
+                next.addDocumentListener(editorListener);
+            }
         });
+        textStats.attach(editor, () -> updateCounts());
 
         previewPane.setEditable(false);
         previewPane.setContentType("text/html");
@@ -196,8 +409,17 @@ public final class StickyNoteApp {
         });
 
         tagBox.setEditable(false);
+        tagBox.setRenderer(new DefaultListCellRenderer() {
+            @Override public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                Integer count = value == null ? null : facetCounts.get(value.toString());
+                if (count != null) setText(value + "  (" + count + ")");
+                return this;
+            }
+        });
         tagBox.addActionListener(new ActionListener() {
             @Override public void actionPerformed(ActionEvent e) {
+                if (suppressTagEvents) return;
                 reloadListOnly();
             }
         });
@@ -322,11 +544,21 @@ public final class StickyNoteApp {
         file.add(item("新建", KeyStroke.getKeyStroke(KeyEvent.VK_N, menuMask()), e -> actionNew()));
         file.add(item("导入…", KeyStroke.getKeyStroke(KeyEvent.VK_I, menuMask()), e -> actionImport()));
         file.add(item("导出…", KeyStroke.getKeyStroke(KeyEvent.VK_E, menuMask()), e -> actionExport()));
+        file.add(item("批量导入…", null, e -> actionBulkImport()));
+        file.add(item("批量导出…", null, e -> actionBulkExport()));
         file.addSeparator();
         file.add(item("备份导出…", null, e -> actionBackupExport()));
         file.add(item("备份导入…", null, e -> actionBackupImport()));
+        file.add(item("增量备份", null, e -> runIncrementalBackup(true)));
+        file.add(item("从增量备份恢复…", null, e -> actionIncrementalRestore()));
+        file.addSeparator();
+        file.add(item("同步文件夹…", null, e -> actionChooseSyncDir()));
+        file.add(item("立即同步", null, e -> runSync(true)));
         file.addSeparator();
         file.add(item("打开数据目录", null, e -> actionOpenDataDir()));
+        apiMenuItem = new JCheckBoxMenuItem("本地 API");
+        apiMenuItem.addActionListener(e -> setApiEnabled(apiMenuItem.getState(), true));
+        file.add(apiMenuItem);
         file.addSeparator();
         file.add(item("退出", KeyStroke.getKeyStroke(KeyEvent.VK_Q, menuMask()), e -> onExit()));
 
@@ -410,125 +642,275 @@ public final class StickyNoteApp {
     }
 
     private void onEditorChanged() {
+        editSeq++;
         if (suppressDocEvents) return;
         dirty = true;
         statusLeft.setText("未保存…");
-        updateCounts();
         autoSaveTimer.restart();
         if (shouldLivePreview()) previewTimer.restart();
     }
 
     private void updateCounts() {
-        String text = editor.getText();
-        int chars = text == null ? 0 : text.length();
-        int words = countWords(text);
-        statusRight.setText("字数 " + words + "  字符 " + chars);
-    }
-
-    private static int countWords(String s) {
-        if (s == null) return 0;
-        s = s.trim();
-        if (s.length() == 0) return 0;
-        int count = 0;
-        boolean inWord = false;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            boolean ws = Character.isWhitespace(c);
-            if (!ws && !inWord) {
-                count++;
-                inWord = true;
-            } else if (ws) {
-                inWord = false;
-            }
-        }
-        return count;
+        statusRight.setText("字数 " + textStats.words() + "  字符 " + textStats.chars());
     }
 
     private void onNoteSelected(Note n) {
-        if (n == null) return;
+        if (n == null || booting) return;
         if (n.id != null && n.id.equals(currentNoteId)) return;
-        saveIfDirty(false);
+        saveInBackground();
         loadNoteIntoEditor(n);
         config.setString("lastNoteId", n.id);
         config.save();
     }
 
+    // Every note gets a fresh document, so a save still reading the previous one on the saver thread is never
+    // mixed up with the new note. Large notes are loaded in chunks while staying editable.
     private void loadNoteIntoEditor(Note n) {
+        cancelChunkedLoad();
+        String text = n == null ? "" : safe(n.content);
+        boolean editable = n != null && !n.deleted;
+        boolean large = text.length() > LARGE_NOTE_CHARS;
+        int first = large ? chunkEnd(text, 0) : text.length();
+        PlainDocument doc = new PlainDocument();
+        try {
+            doc.insertString(0, text.substring(0, first), null);
+        } catch (BadLocationException ignored) {}
         suppressDocEvents = true;
         try {
+            editor.putClientProperty(LazyWrapView.CLIENT_PROPERTY, large);
+            editor.setDocument(doc);
             undoManager.discardAllEdits();
-            editor.setText(n == null ? "" : safe(n.content));
             editor.setCaretPosition(0);
-            boolean editable = n != null && !n.deleted;
             editor.setEditable(editable);
             editor.setEnabled(true);
             currentNoteId = n == null ? null : n.id;
+            session = n == null ? null : new EditSession(n.id, doc, text);
             dirty = false;
-            statusLeft.setText("已加载");
+            statusLeft.setText(large ? "加载中…" : "已加载");
             updateCounts();
             rebuildTagChips(n);
         } finally {
             suppressDocEvents = false;
         }
+        if (first < text.length()) {
+            pendingText = text;
+            pendingPos = first;
+            chunkLoader = new Timer(1, e -> appendChunk(false));
+            chunkLoader.start();
+        }
+    }
+
+    private static int chunkEnd(String text, int from) {
+        int end = Math.min(text.length(), from + LOAD_CHUNK_CHARS);
+        if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) end++;
+        return end;
+    }
+
+    // Chunks always go at the end of the document: nothing after the loaded part exists yet, so text the user
+    // typed stays in front of the rest of the note. They are kept out of the undo history and do not move the caret.
+    private void appendChunk(boolean all) {
+        if (chunkLoader == null) return;
+        int end = all ? pendingText.length() : chunkEnd(pendingText, pendingPos);
+        Document doc = editor.getDocument();
+        DefaultCaret caret = editor.getCaret() instanceof DefaultCaret ? (DefaultCaret) editor.getCaret() : null;
+        int policy = caret == null ? 0 : caret.getUpdatePolicy();
+        if (caret != null) caret.setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        doc.removeUndoableEditListener(undoManager);
+        suppressDocEvents = true;
+        try {
+            doc.insertString(doc.getLength(), pendingText.substring(pendingPos, end), null);
+        } catch (BadLocationException ignored) {
+        } finally {
+            suppressDocEvents = false;
+            doc.addUndoableEditListener(undoManager);
+            if (caret != null) caret.setUpdatePolicy(policy);
+        }
+        pendingPos = end;
+        if (end >= pendingText.length()) {
+            cancelChunkedLoad();
+            if (!dirty) statusLeft.setText("已加载（大文件模式）");
+            if (shouldLivePreview()) previewTimer.restart();
+        }
+    }
+
+    private void cancelChunkedLoad() {
+        if (chunkLoader == null) return;
+        chunkLoader.stop();
+        chunkLoader = null;
+        pendingText = null;
     }
 
     private void saveIfDirty(boolean forceSnapshot) {
-        if (currentNoteId == null) return;
-        if (!dirty && !forceSnapshot) return;
+        Future<Saved> f = scheduleSave(forceSnapshot);
+        if (f == null) return;
+        Saved saved;
+        try {
+            saved = f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            statusLeft.setText("保存失败：" + e.getCause());
+            return;
+        }
+        finishSave(saved);
+    }
 
-        Note n = store.getById(currentNoteId);
-        if (n == null) return;
+    private void saveInBackground() {
+        scheduleSave(false);
+    }
 
-        n.content = editor.getText();
+    // The text is copied out of the document under its read lock on the saver thread, so the EDT never builds
+    // the whole string or rewrites notes.json. editSeq tells finishSave whether the editor changed meanwhile.
+    private Future<Saved> scheduleSave(boolean forceSnapshot) {
+        if (currentNoteId == null || session == null) return null;
+        if (restoring || booting) return null;
+        if (!dirty && !forceSnapshot) return null;
+        if (chunkLoader != null) appendChunk(true);
 
         boolean writeHistory = forceSnapshot;
         long now = System.currentTimeMillis();
         if (!writeHistory && now - lastSnapshotAt > 20_000L) writeHistory = true;
+        if (writeHistory) lastSnapshotAt = now;
 
-        try {
-            store.updateNote(n, writeHistory);
-            if (writeHistory) lastSnapshotAt = now;
+        final Saved saved = new Saved(session, dirty);
+        final boolean history = writeHistory;
+        return saver.submit(() -> {
+            final EditSession s = saved.session;
+            try {
+                if (saved.edited) {
+                    s.doc.render(() -> {
+                        saved.seq = editSeq;
+                        saved.text = readText(s.doc);
+                    });
+                    saved.result = store.saveEdit(s.noteId, s.base, saved.text, history);
+                    s.base = saved.text;
+                } else {
+                    saved.seq = editSeq;
+                    store.mutate(s.noteId, history, x -> {});
+                }
+            } catch (IOException | RuntimeException e) {
+                saved.error = e;
+            }
+            SwingUtilities.invokeLater(() -> finishSave(saved));
+            return saved;
+        });
+    }
+
+    private void finishSave(Saved saved) {
+        if (saved.handled) return;
+        saved.handled = true;
+        boolean current = saved.session == session;
+        if (saved.error != null) {
+            statusLeft.setText("保存失败：" + saved.error.getMessage());
+            return;
+        }
+        if (saved.edited && saved.result == null) return;
+        if (current && saved.seq == editSeq) {
+            String status = "已保存";
+            if (saved.result != null && !saved.result.text.equals(saved.text)) {
+                final EditSession s = saved.session;
+                final String merged = saved.result.text;
+                replaceEditorText(merged);
+                saver.execute(() -> s.base = merged);
+                status = saved.result.conflicts > 0
+                        ? "已与外部修改合并，" + saved.result.conflicts + " 处冲突已标出（外部版本已存入历史）"
+                        : "已与外部修改合并（外部版本已存入历史）";
+            }
             dirty = false;
-            statusLeft.setText("已保存");
-            reloadListOnlyPreserveSelection(currentNoteId);
-            if (shouldLivePreview()) previewTimer.restart();
-        } catch (IOException e) {
-            statusLeft.setText("保存失败：" + e.getMessage());
+            statusLeft.setText(status);
         }
+        reloadListOnlyPreserveSelection(currentNoteId);
+        if (current && shouldLivePreview()) previewTimer.restart();
     }
 
-    private void reloadFiltersAndList() {
-        Scope scope = (Scope) scopeBox.getSelectedItem();
+    private static String readText(Document doc) {
+        int len = doc.getLength();
+        StringBuilder sb = new StringBuilder(len);
+        Segment seg = new Segment();
+        seg.setPartialReturn(true);
+        try {
+            for (int pos = 0; pos < len; pos += seg.count) {
+                doc.getText(pos, len - pos, seg);
+                sb.append(seg.array, seg.offset, seg.count);
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
 
-        tagBox.removeAllItems();
-        tagBox.addItem("（全部标签）");
-        List<String> tags = new ArrayList<String>(collectTagsForScope(scope));
-        Collections.sort(tags);
-        for (int i = 0; i < tags.size(); i++) tagBox.addItem(tags.get(i));
+    private void replaceEditorText(String text) {
+        int caret = editor.getCaretPosition();
+        suppressDocEvents = true;
+        try {
+            editor.setText(text);
+            editor.setCaretPosition(Math.min(caret, editor.getDocument().getLength()));
+            updateCounts();
+        } finally {
+            suppressDocEvents = false;
+        }
+    }
 
+    private void reloadFiltersAndList() {
+        refreshTagFacets((Scope) scopeBox.getSelectedItem());
         reloadListOnly();
     }
 
-    private java.util.Set<String> collectTagsForScope(Scope scope) {
-        java.util.Set<String> tags = new java.util.HashSet<String>();
-        List<Note> all = store.getAll();
-        for (int i = 0; i < all.size(); i++) {
-            Note n = all.get(i);
-            if (n == null) continue;
-            if (scope == Scope.TRASH) {
-                if (!n.deleted) continue;
-            } else {
-                if (n.deleted) continue;
-                if (scope == Scope.ACTIVE && n.archived) continue;
-                if (scope == Scope.ARCHIVED && !n.archived) continue;
+    private void refreshTagFacets(Scope scope) {
+        Set<NoteStore.Bucket> buckets = bucketsFor(scope);
+        Set<String> changed = store.takeChangedTags();
+        suppressTagEvents = true;
+        try {
+            if (scope != facetScope || store.facetStamp() != facetStamp) {
+                facetScope = scope;
+                facetStamp = store.facetStamp();
+                facetCounts = store.tagCounts(buckets);
+                List<String> tags = new ArrayList<String>(facetCounts.keySet());
+                Collections.sort(tags);
+                tagBox.removeAllItems();
+                tagBox.addItem("（全部标签）");
+                for (int i = 0; i < tags.size(); i++) tagBox.addItem(tags.get(i));
+                return;
             }
-            if (n.tags == null) continue;
-            for (int t = 0; t < n.tags.size(); t++) {
-                String tag = NoteStore.normalizeTag(n.tags.get(t));
-                if (tag.length() > 0) tags.add(tag);
+
+            Object selected = tagBox.getSelectedItem();
+            for (String tag : changed) {
+                int count = store.tagCount(tag, buckets);
+                int pos = tagBoxPosition(tag);
+                if (count > 0) {
+                    facetCounts.put(tag, count);
+                    if (pos < 0) tagBox.insertItemAt(tag, -pos - 1);
+                } else {
+                    facetCounts.remove(tag);
+                    if (pos >= 0) tagBox.removeItemAt(pos);
+                }
             }
+            if (selected != null && tagBoxPosition(selected.toString()) < 0) tagBox.setSelectedIndex(0);
+        } finally {
+            suppressTagEvents = false;
+        }
+        tagBox.repaint();
+    }
+
+    private int tagBoxPosition(String tag) {
+        int lo = 1;
+        int hi = tagBox.getItemCount() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = tagBox.getItemAt(mid).compareTo(tag);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
         }
-        return tags;
+        return -(lo + 1);
+    }
+
+    private static Set<NoteStore.Bucket> bucketsFor(Scope scope) {
+        if (scope == Scope.ACTIVE) return EnumSet.of(NoteStore.Bucket.ACTIVE);
+        if (scope == Scope.ARCHIVED) return EnumSet.of(NoteStore.Bucket.ARCHIVED);
+        if (scope == Scope.TRASH) return EnumSet.of(NoteStore.Bucket.TRASH);
+        return EnumSet.of(NoteStore.Bucket.ACTIVE, NoteStore.Bucket.ARCHIVED);
     }
 
     private void reloadListOnly() {
@@ -536,24 +918,16 @@ public final class StickyNoteApp {
     }
 
     private void reloadListOnlyPreserveSelection(String keepId) {
-        listModel.clear();
-
         Scope scope = (Scope) scopeBox.getSelectedItem();
         String q = searchField.getText();
         String tag = selectedTag();
         noteList.putClientProperty("query", q);
 
-        List<Note> all = new ArrayList<Note>(store.getAll());
-        Collections.sort(all, new Comparator<Note>() {
-            @Override public int compare(Note a, Note b) {
-                if (a.pinned != b.pinned) return a.pinned ? -1 : 1;
-                if (a.updatedAt == b.updatedAt) return 0;
-                return a.updatedAt > b.updatedAt ? -1 : 1;
-            }
-        });
-
-        for (int i = 0; i < all.size(); i++) {
-            Note n = all.get(i);
+        List<Note> view = store.sortedView();
+        int[] rows = new int[view.size()];
+        int count = 0;
+        for (int i = 0; i < view.size(); i++) {
+            Note n = view.get(i);
             if (scope == Scope.TRASH) {
                 if (!n.deleted) continue;
             } else {
@@ -563,28 +937,29 @@ public final class StickyNoteApp {
             }
             if (!n.matchesQuery(q)) continue;
             if (tag != null && tag.length() > 0 && !hasTag(n, tag)) continue;
-            listModel.addElement(n);
+            rows[count++] = i;
         }
+        listModel.setRows(view, count == view.size() ? null : rows, count);
 
         selectByIdOrFirst(keepId);
         noteList.repaint();
     }
 
     private void selectByIdOrFirst(String id) {
-        int idx = -1;
-        if (id != null) {
-            for (int i = 0; i < listModel.size(); i++) {
-                Note n = listModel.get(i);
-                if (id.equals(n.id)) { idx = i; break; }
-            }
-        }
-        if (idx < 0 && listModel.size() > 0) idx = 0;
+        int idx = listModel.indexOfId(id);
+        if (idx < 0 && listModel.getSize() > 0) idx = 0;
         if (idx >= 0) {
             noteList.setSelectedIndex(idx);
             noteList.ensureIndexIsVisible(idx);
         }
     }
 
+    private void updateListCellSize() {
+        Dimension cell = noteRenderer.getPreferredSize();
+        noteList.setFixedCellWidth(cell.width);
+        noteList.setFixedCellHeight(cell.height);
+    }
+
     private String selectedTag() {
         Object o = tagBox.getSelectedItem();
         if (o == null) return null;
@@ -647,9 +1022,8 @@ public final class StickyNoteApp {
         Note n = selectedNote();
         if (n == null) return;
         if (n.deleted) return;
-        n.pinned = !n.pinned;
         try {
-            store.updateNote(n, false);
+            store.mutate(n.id, false, x -> x.pinned = !x.pinned);
             reloadListOnly();
         } catch (IOException e) {
             statusLeft.setText("操作失败：" + e.getMessage());
@@ -660,9 +1034,8 @@ public final class StickyNoteApp {
         Note n = selectedNote();
         if (n == null) return;
         if (n.deleted) return;
-        n.archived = !n.archived;
         try {
-            store.updateNote(n, false);
+            store.mutate(n.id, false, x -> x.archived = !x.archived);
             reloadFiltersAndList();
             selectByIdOrFirst(n.id);
         } catch (IOException e) {
@@ -686,12 +1059,11 @@ public final class StickyNoteApp {
             if (t.length() == 0) continue;
             if (!containsIgnoreCase(next, t)) next.add(t);
         }
-        n.tags = next;
         try {
-            store.updateNote(n, false);
+            Note updated = store.mutate(n.id, false, x -> x.setTags(next));
             reloadFiltersAndList();
             selectByIdOrFirst(n.id);
-            rebuildTagChips(n);
+            rebuildTagChips(updated);
         } catch (IOException e) {
             statusLeft.setText("操作失败：" + e.getMessage());
         }
@@ -751,7 +1123,9 @@ public final class StickyNoteApp {
         config.setString("theme", t.name());
         config.save();
         SwingUtilities.updateComponentTreeUI(frame);
+        updateListCellSize();
         restoreWindowConfig();
+        if (shouldLivePreview()) previewTimer.restart();
     }
 
     private void actionHistory() {
@@ -785,6 +1159,7 @@ public final class StickyNoteApp {
 
         try {
             String content = store.readHistoryFile(chosen);
+            cancelChunkedLoad();
             suppressDocEvents = true;
             try {
                 editor.setText(content == null ? "" : content);
@@ -817,6 +1192,147 @@ public final class StickyNoteApp {
         }
     }
 
+    private void actionBulkImport() {
+        saveIfDirty(false);
+        JFileChooser fc = new JFileChooser();
+        fc.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        fc.setDialogTitle("选择要导入的文件夹或 zip");
+        JCheckBox folderTags = new JCheckBox("用文件夹名作为标签", true);
+        fc.setAccessory(folderTags);
+        int ok = fc.showOpenDialog(frame);
+        if (ok != JFileChooser.APPROVE_OPTION) return;
+        final Path source = fc.getSelectedFile().toPath();
+        final boolean isDir = Files.isDirectory(source);
+
+        final BulkImporter importer = new BulkImporter(folderTags.isSelected());
+        final ProgressMonitor pm = new ProgressMonitor(frame, "正在导入…", null, 0, 100);
+        pm.setMillisToDecideToPopup(200);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final BulkImporter.Listener listener = new BulkImporter.Listener() {
+            @Override public void progress(int done, int total) {
+                SwingUtilities.invokeLater(() -> {
+                    if (pm.isCanceled()) {
+                        cancelled.set(true);
+                        return;
+                    }
+                    pm.setMaximum(total);
+                    pm.setProgress(done);
+                });
+            }
+
+            @Override public boolean isCancelled() {
+                return cancelled.get();
+            }
+        };
+
+        new SwingWorker<List<Note>, Void>() {
+            @Override protected List<Note> doInBackground() throws IOException {
+                return isDir ? importer.importDirectory(source, listener) : importer.importZip(source, listener);
+            }
+
+            @Override protected void done() {
+                pm.close();
+                try {
+                    List<Note> imported = get();
+                    if (cancelled.get()) {
+                        statusLeft.setText("已取消批量导入");
+                        return;
+                    }
+                    if (imported.isEmpty()) {
+                        statusLeft.setText("没有找到可导入的 .md / .txt 文件");
+                        return;
+                    }
+                    store.addAll(imported);
+                    reloadFiltersAndList();
+                    selectByIdOrFirst(imported.get(0).id);
+                    statusLeft.setText("已批量导入 " + imported.size() + " 条：" + source.getFileName());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(frame, e.toString(), "批量导入失败", JOptionPane.ERROR_MESSAGE);
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Throwable c = e.getCause() == null ? e : e.getCause();
+                    JOptionPane.showMessageDialog(frame, c.toString(), "批量导入失败", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private void actionBulkExport() {
+        saveIfDirty(false);
+        Scope scope = (Scope) scopeBox.getSelectedItem();
+        List<Note> notes = new ArrayList<Note>();
+        for (Note n : store.sortedView()) {
+            if (scope == Scope.TRASH) {
+                if (!n.deleted) continue;
+            } else {
+                if (n.deleted) continue;
+                if (scope == Scope.ACTIVE && n.archived) continue;
+                if (scope == Scope.ARCHIVED && !n.archived) continue;
+            }
+            notes.add(n);
+        }
+        if (notes.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "当前范围没有可导出的便签。", "批量导出", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        JCheckBox withHtml = new JCheckBox("同时导出 HTML");
+        JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.add(new JLabel("将导出 " + notes.size() + " 条便签（" + scope + "）"), BorderLayout.NORTH);
+        panel.add(withHtml, BorderLayout.CENTER);
+        Object[] options = { "导出到文件夹", "导出为 zip", "取消" };
+        int choice = JOptionPane.showOptionDialog(frame, panel, "批量导出", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+        if (choice != 0 && choice != 1) return;
+        final boolean zip = choice == 1;
+
+        JFileChooser fc = new JFileChooser();
+        if (zip) fc.setSelectedFile(new java.io.File("sticky-notes-export.zip"));
+        else fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        int ok = fc.showSaveDialog(frame);
+        if (ok != JFileChooser.APPROVE_OPTION) return;
+        final Path target = fc.getSelectedFile().toPath();
+
+        final List<BulkExporter.Item> items = BulkExporter.snapshot(notes);
+        final BulkExporter exporter = new BulkExporter(markdownPreview().renderer(), withHtml.isSelected());
+        final ProgressMonitor pm = new ProgressMonitor(frame, "正在导出…", null, 0, items.size());
+        pm.setMillisToDecideToPopup(200);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final BulkExporter.Listener listener = new BulkExporter.Listener() {
+            @Override public void progress(int done, int total) {
+                SwingUtilities.invokeLater(() -> {
+                    if (pm.isCanceled()) cancelled.set(true);
+                    else pm.setProgress(done);
+                });
+            }
+
+            @Override public boolean isCancelled() {
+                return cancelled.get();
+            }
+        };
+
+        new SwingWorker<Integer, Void>() {
+            @Override protected Integer doInBackground() throws IOException {
+                return zip ? exporter.exportToZip(items, target, listener) : exporter.exportToDirectory(items, target, listener);
+            }
+
+            @Override protected void done() {
+                pm.close();
+                try {
+                    int n = get();
+                    if (cancelled.get()) statusLeft.setText("已取消批量导出（" + n + "/" + items.size() + "）");
+                    else statusLeft.setText("已批量导出 " + n + " 条：" + target.getFileName());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Throwable c = e.getCause() == null ? e : e.getCause();
+                    JOptionPane.showMessageDialog(frame, c.toString(), "批量导出失败", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
     private void actionImport() {
         JFileChooser fc = new JFileChooser();
         int ok = fc.showOpenDialog(frame);
@@ -825,9 +1341,7 @@ public final class StickyNoteApp {
         try {
             byte[] bytes = Files.readAllBytes(file);
             String content = new String(bytes, StandardCharsets.UTF_8);
-            Note n = store.createNote();
-            n.content = content;
-            store.updateNote(n, true);
+            Note n = store.mutate(store.createNote().id, true, x -> x.setContent(content));
             reloadFiltersAndList();
             selectByIdOrFirst(n.id);
             loadNoteIntoEditor(n);
@@ -842,13 +1356,47 @@ public final class StickyNoteApp {
         fc.setSelectedFile(new java.io.File("sticky-note-backup.zip"));
         int ok = fc.showSaveDialog(frame);
         if (ok != JFileChooser.APPROVE_OPTION) return;
-        Path file = fc.getSelectedFile().toPath();
-        try {
-            writeBackupZip(file);
-            statusLeft.setText("已备份导出：" + file.getFileName());
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(frame, e.toString(), "备份导出失败", JOptionPane.ERROR_MESSAGE);
-        }
+        final Path file = fc.getSelectedFile().toPath();
+
+        final BackupArchive archive = new BackupArchive(paths);
+        final ProgressMonitor pm = new ProgressMonitor(frame, "正在备份导出…", null, 0, 100);
+        pm.setMillisToDecideToPopup(200);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final BackupArchive.Listener listener = new BackupArchive.Listener() {
+            @Override public void progress(int done, int total) {
+                SwingUtilities.invokeLater(() -> {
+                    if (pm.isCanceled()) {
+                        cancelled.set(true);
+                        return;
+                    }
+                    pm.setMaximum(total);
+                    pm.setProgress(done);
+                });
+            }
+
+            @Override public boolean isCancelled() {
+                return cancelled.get();
+            }
+        };
+
+        new SwingWorker<Boolean, Void>() {
+            @Override protected Boolean doInBackground() throws IOException {
+                return archive.write(file, listener);
+            }
+
+            @Override protected void done() {
+                pm.close();
+                try {
+                    if (get()) statusLeft.setText("已备份导出：" + file.getFileName());
+                    else statusLeft.setText("已取消备份导出");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Throwable c = e.getCause() == null ? e : e.getCause();
+                    JOptionPane.showMessageDialog(frame, c.toString(), "备份导出失败", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
 
     private void actionBackupImport() {
@@ -856,7 +1404,7 @@ public final class StickyNoteApp {
         JFileChooser fc = new JFileChooser();
         int ok = fc.showOpenDialog(frame);
         if (ok != JFileChooser.APPROVE_OPTION) return;
-        Path file = fc.getSelectedFile().toPath();
+        final Path file = fc.getSelectedFile().toPath();
 
         int sure = JOptionPane.showConfirmDialog(frame,
                 "导入备份会覆盖当前数据（notes.json），确定继续吗？",
@@ -864,135 +1412,245 @@ public final class StickyNoteApp {
                 JOptionPane.OK_CANCEL_OPTION);
         if (sure != JOptionPane.OK_OPTION) return;
 
-        try {
-            readBackupZip(file);
-            store.ensureLoaded();
-            reloadFiltersAndList();
-            selectByIdOrFirst(currentNoteId);
-            statusLeft.setText("已导入备份：" + file.getFileName());
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(frame, e.toString(), "备份导入失败", JOptionPane.ERROR_MESSAGE);
-        }
-    }
+        final BackupArchive archive = new BackupArchive(paths);
+        final BackupArchive.Listener listener = new BackupArchive.Listener() {
+            @Override public void progress(int done, int total) {
+                SwingUtilities.invokeLater(() -> statusLeft.setText("正在导入备份… " + done + "%"));
+            }
 
-    private void writeBackupZip(Path zipFile) throws IOException {
-        Files.createDirectories(zipFile.toAbsolutePath().getParent());
-        try (OutputStream out = Files.newOutputStream(zipFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-             ZipOutputStream zos = new ZipOutputStream(out)) {
-            if (Files.exists(paths.notesFile)) addZipFile(zos, "notes.json", paths.notesFile);
-            if (Files.exists(paths.configFile)) addZipFile(zos, "config.properties", paths.configFile);
-            if (Files.isDirectory(paths.historyDir)) addZipDir(zos, "history/", paths.historyDir);
-        }
+            @Override public boolean isCancelled() {
+                return false;
+            }
+        };
+        runRestore("已导入备份：" + file.getFileName(), () -> archive.restore(file, listener));
     }
 
-    private void readBackupZip(Path zipFile) throws IOException {
-        if (!Files.exists(zipFile)) throw new IOException("File not found: " + zipFile);
-        Files.createDirectories(paths.appDir);
-        Files.createDirectories(paths.historyDir);
-
-        Path tmp = paths.appDir.resolve("import_tmp");
-        if (Files.exists(tmp)) deleteRecursively(tmp);
-        Files.createDirectories(tmp);
-
-        try (InputStream in = Files.newInputStream(zipFile);
-             ZipInputStream zis = new ZipInputStream(in)) {
-            ZipEntry e;
-            while ((e = zis.getNextEntry()) != null) {
-                if (e.isDirectory()) continue;
-                String name = e.getName();
-                if (name == null) continue;
-                if (name.startsWith("/") || name.contains("..") || name.contains(":")) continue;
-                Path out = tmp.resolve(name.replace("/", java.io.File.separator));
-                Files.createDirectories(out.getParent());
-                Files.copy(zis, out, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            }
+    private void runRestore(final String doneText, final RestoreTask task) {
+        if (syncing) {
+            JOptionPane.showMessageDialog(frame, "正在同步，请在同步完成后再恢复。", "恢复", JOptionPane.INFORMATION_MESSAGE);
+            return;
         }
+        config.flush();
+        restoring = true;
+        if (notesWatcher != null) notesWatcher.stop();
+        if (apiServer != null) apiServer.setPaused(true);
+        frame.setEnabled(false);
+        frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        statusLeft.setText("正在恢复…");
+        new SwingWorker<Void, Void>() {
+            @Override protected Void doInBackground() throws IOException {
+                synchronized (backups) {
+                    task.run();
+                }
+                return null;
+            }
 
-        Path notes = tmp.resolve("notes.json");
-        Path cfg = tmp.resolve("config.properties");
-        if (Files.exists(notes)) Files.copy(notes, paths.notesFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-        if (Files.exists(cfg)) Files.copy(cfg, paths.configFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            @Override protected void done() {
+                restoring = false;
+                if (apiServer != null) apiServer.setPaused(false);
+                frame.setCursor(Cursor.getDefaultCursor());
+                frame.setEnabled(true);
+                startNotesWatcher();
+                try {
+                    get();
+                    config.load();
+                    store.ensureLoaded();
+                    reloadFiltersAndList();
+                    selectByIdOrFirst(currentNoteId);
+                    statusLeft.setText(doneText);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(frame, e.toString(), "恢复失败", JOptionPane.ERROR_MESSAGE);
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Throwable c = e.getCause() == null ? e : e.getCause();
+                    statusLeft.setText(" ");
+                    JOptionPane.showMessageDialog(frame, c.toString(), "恢复失败", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
 
-        Path hist = tmp.resolve("history");
-        if (Files.isDirectory(hist)) {
-            if (Files.exists(paths.historyDir)) deleteRecursively(paths.historyDir);
-            Files.createDirectories(paths.historyDir);
-            copyRecursively(hist, paths.historyDir);
+    private void runIncrementalBackup(final boolean interactive) {
+        saveIfDirty(false);
+        if (!backupRunning.compareAndSet(false, true)) {
+            if (interactive) statusLeft.setText("备份进行中…");
+            return;
         }
+        backupExecutor.execute(() -> {
+            try {
+                BackupManager.Result r = backups.backup();
+                SwingUtilities.invokeLater(() -> statusLeft.setText("已增量备份：" + r.files + " 个文件，新增 "
+                        + r.stored + " 个（" + (r.storedBytes + 1023) / 1024 + " KB）"));
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (interactive) JOptionPane.showMessageDialog(frame, e.toString(), "增量备份失败", JOptionPane.ERROR_MESSAGE);
+                    else statusLeft.setText("自动备份失败：" + e.getMessage());
+                });
+            } finally {
+                backupRunning.set(false);
+            }
+        });
+    }
 
-        deleteRecursively(tmp);
+    private void actionChooseSyncDir() {
+        JFileChooser fc = new JFileChooser(config.getString("syncDir", null));
+        fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        fc.setDialogTitle("选择同步文件夹（可放在网盘或共享目录中）");
+        if (fc.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        config.setString("syncDir", fc.getSelectedFile().getAbsolutePath());
+        config.save();
+        syncEngine = null;
+        runSync(true);
     }
 
-    private static void addZipFile(ZipOutputStream zos, String entryName, Path file) throws IOException {
-        ZipEntry e = new ZipEntry(entryName);
-        zos.putNextEntry(e);
-        byte[] buf = new byte[8192];
-        try (InputStream in = Files.newInputStream(file)) {
-            int n;
-            while ((n = in.read(buf)) >= 0) {
-                if (n == 0) continue;
-                zos.write(buf, 0, n);
-            }
+    private void runSync(final boolean interactive) {
+        String dir = config.getString("syncDir", "");
+        if (dir.isEmpty()) {
+            if (interactive) actionChooseSyncDir();
+            return;
         }
-        zos.closeEntry();
-    }
-
-    private static void addZipDir(ZipOutputStream zos, String prefix, Path dir) throws IOException {
-        java.util.ArrayDeque<Path> stack = new java.util.ArrayDeque<Path>();
-        stack.push(dir);
-        while (!stack.isEmpty()) {
-            Path cur = stack.pop();
-            try (java.nio.file.DirectoryStream<Path> ds = Files.newDirectoryStream(cur)) {
-                for (Path p : ds) {
-                    if (Files.isDirectory(p)) stack.push(p);
-                    else {
-                        Path rel = dir.relativize(p);
-                        String name = prefix + rel.toString().replace(java.io.File.separatorChar, '/');
-                        addZipFile(zos, name, p);
-                    }
+        if (booting || restoring || syncing) return;
+        saveIfDirty(false);
+        if (syncEngine == null) syncEngine = new SyncEngine(paths, store, Paths.get(dir));
+        final SyncEngine engine = syncEngine;
+        syncing = true;
+        statusLeft.setText("正在同步…");
+        new SwingWorker<SyncEngine.Report, Void>() {
+            @Override protected SyncEngine.Report doInBackground() throws IOException {
+                return engine.apply(engine.prepare(), r -> SwingUtilities.invokeLater(() -> {
+                    saveIfDirty(false);
+                    r.run();
+                }));
+            }
+
+            @Override protected void done() {
+                syncing = false;
+                try {
+                    SyncEngine.Report r = get();
+                    String text = "已同步：拉取 " + r.pulled + "，推送 " + r.pushed + "，合并 " + r.merged;
+                    if (r.conflicts > 0) text += "，" + r.conflicts + " 处冲突已在便签中标出";
+                    statusLeft.setText(text);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Throwable c = e.getCause() == null ? e : e.getCause();
+                    if (interactive) JOptionPane.showMessageDialog(frame, c.toString(), "同步失败", JOptionPane.ERROR_MESSAGE);
+                    else statusLeft.setText("同步失败：" + c.getMessage());
                 }
             }
+        }.execute();
+    }
+
+    private void actionIncrementalRestore() {
+        saveIfDirty(false);
+        List<String> names;
+        try {
+            names = backups.listBackups();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, e.toString(), "读取备份失败", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+        if (names.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, "还没有增量备份。", "从增量备份恢复", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        Object picked = JOptionPane.showInputDialog(frame, "选择要恢复到的备份时间点：", "从增量备份恢复",
+                JOptionPane.QUESTION_MESSAGE, null, names.toArray(), names.get(0));
+        if (picked == null) return;
+        final String name = picked.toString();
+
+        int sure = JOptionPane.showConfirmDialog(frame,
+                "恢复会覆盖当前数据（notes.json、配置与历史），确定继续吗？",
+                "确认恢复",
+                JOptionPane.OK_CANCEL_OPTION);
+        if (sure != JOptionPane.OK_OPTION) return;
+
+        final Path staging = BackupArchive.stagingDir(paths);
+        runRestore("已恢复到备份：" + name, () -> {
+            boolean swapped = false;
+            try {
+                BackupArchive.deleteRecursively(staging);
+                Files.createDirectories(staging);
+                backups.restoreTo(name, staging);
+                BackupArchive.verifyNotes(staging.resolve("notes.json"));
+                BackupArchive.swapIn(paths, staging);
+                swapped = true;
+            } finally {
+                if (!swapped) BackupArchive.deleteRecursively(staging);
+            }
+        });
     }
 
-    private static void copyRecursively(Path from, Path to) throws IOException {
-        java.util.ArrayDeque<Path> stack = new java.util.ArrayDeque<Path>();
-        stack.push(from);
-        while (!stack.isEmpty()) {
-            Path cur = stack.pop();
-            Path rel = from.relativize(cur);
-            Path dst = to.resolve(rel.toString());
-            if (Files.isDirectory(cur)) {
-                Files.createDirectories(dst);
-                try (java.nio.file.DirectoryStream<Path> ds = Files.newDirectoryStream(cur)) {
-                    for (Path p : ds) stack.push(p);
+    private void setApiEnabled(boolean on, boolean interactive) {
+        if (on) {
+            try {
+                if (apiServer == null) {
+                    apiServer = new NoteServer(store, new NoteServer.Listener() {
+                        @Override public void changed(final String id) {
+                            SwingUtilities.invokeLater(() -> onExternalChange(id));
+                        }
+
+                        @Override public boolean isEditing(String id) {
+                            return dirty && id.equals(currentNoteId);
+                        }
+                    }, NoteServer.loadOrCreateToken(paths));
                 }
-            } else {
-                Files.createDirectories(dst.getParent());
-                Files.copy(cur, dst, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                apiServer.start(config.getInt("apiPort", NoteServer.DEFAULT_PORT));
+                statusLeft.setText("本地 API：http://127.0.0.1:" + apiServer.port() + "/notes（令牌见数据目录 api-token）");
+            } catch (IOException e) {
+                on = false;
+                if (interactive) JOptionPane.showMessageDialog(frame, e.toString(), "本地 API 启动失败", JOptionPane.ERROR_MESSAGE);
+                else statusLeft.setText("本地 API 启动失败：" + e.getMessage());
             }
+        } else if (apiServer != null) {
+            apiServer.stop();
+            statusLeft.setText("本地 API 已关闭");
         }
+        apiMenuItem.setState(on);
+        config.setBool("apiEnabled", on);
+        config.save();
     }
 
-    private static void deleteRecursively(Path p) throws IOException {
-        if (!Files.exists(p)) return;
-        java.util.ArrayDeque<Path> stack = new java.util.ArrayDeque<Path>();
-        java.util.ArrayList<Path> all = new java.util.ArrayList<Path>();
-        stack.push(p);
-        while (!stack.isEmpty()) {
-            Path cur = stack.pop();
-            all.add(cur);
-            if (Files.isDirectory(cur)) {
-                try (java.nio.file.DirectoryStream<Path> ds = Files.newDirectoryStream(cur)) {
-                    for (Path c : ds) stack.push(c);
-                }
+    private void onExternalChange(String id) {
+        if (booting || restoring) return;
+        if (id != null && id.equals(currentNoteId) && !dirty) {
+            Note n = store.getById(id);
+            if (n != null && !n.deleted) {
+                int caret = editor.getCaretPosition();
+                loadNoteIntoEditor(n);
+                if (chunkLoader == null) editor.setCaretPosition(Math.min(caret, editor.getDocument().getLength()));
             }
         }
-        for (int i = all.size() - 1; i >= 0; i--) {
-            try { Files.deleteIfExists(all.get(i)); } catch (IOException ignored) {}
+        reloadFiltersAndList();
+    }
+
+    private void startNotesWatcher() {
+        if (notesWatcher == null) return;
+        try {
+            notesWatcher.start();
+        } catch (IOException e) {
+            statusLeft.setText("无法监视数据目录：" + e.getMessage());
         }
     }
 
+    private void reloadFromDisk() {
+        if (booting || restoring) return;
+        try {
+            store.reloadFromDisk();
+        } catch (IOException e) {
+            statusLeft.setText("载入外部修改失败：" + e.getMessage());
+        }
+    }
+
+    private void onNotesChangedOnDisk(Set<String> ids) {
+        if (booting || restoring) return;
+        boolean current = currentNoteId != null && ids.contains(currentNoteId);
+        onExternalChange(current ? currentNoteId : null);
+        if (current && dirty) statusLeft.setText("当前便签已被其他程序修改，保存时将与未保存的内容合并");
+        else statusLeft.setText("已载入外部修改：" + ids.size() + " 条便签");
+    }
+
     private void actionOpenDataDir() {
         try {
             if (Desktop.isDesktopSupported()) Desktop.getDesktop().open(paths.appDir.toFile());
@@ -1006,9 +1664,12 @@ public final class StickyNoteApp {
     }
 
     private void renderPreviewIfVisible() {
-        if (editorTabs == null) return;
+        if (editorTabs == null || booting) return;
+        if (chunkLoader != null) return;
         if (!shouldLivePreview()) return;
-        markdownPreview.renderTo(previewPane, editor.getText());
+        EditorMode mode = editorModeFromTabIndex(editorTabs.getSelectedIndex());
+        int anchor = mode == EditorMode.SPLIT ? editor.getCaretPosition() : 0;
+        markdownPreview().renderAsync(previewPane, editor.getText(), currentNoteId, anchor);
     }
 
     private boolean shouldLivePreview() {
@@ -1110,13 +1771,16 @@ public final class StickyNoteApp {
         if (input == null) return;
         String t = NoteStore.normalizeTag(input);
         if (t.length() == 0) return;
-        if (n.tags == null) n.tags = new ArrayList<String>();
-        if (!containsIgnoreCase(n.tags, t)) n.tags.add(t);
+        if (n.tags != null && containsIgnoreCase(n.tags, t)) return;
         try {
-            store.updateNote(n, false);
+            Note updated = store.mutate(n.id, false, x -> {
+                List<String> tags = x.tags == null ? new ArrayList<String>() : new ArrayList<String>(x.tags);
+                if (!containsIgnoreCase(tags, t)) tags.add(t);
+                x.setTags(tags);
+            });
             reloadFiltersAndList();
             selectByIdOrFirst(n.id);
-            rebuildTagChips(n);
+            rebuildTagChips(updated);
         } catch (IOException e) {
             statusLeft.setText("操作失败：" + e.getMessage());
         }
@@ -1125,20 +1789,18 @@ public final class StickyNoteApp {
     private void actionRemoveTag(String tag) {
         Note n = selectedNote();
         if (n == null || n.deleted) return;
-        if (n.tags == null || n.tags.isEmpty()) return;
-        boolean changed = false;
-        for (int i = n.tags.size() - 1; i >= 0; i--) {
-            if (tag.equalsIgnoreCase(n.tags.get(i))) {
-                n.tags.remove(i);
-                changed = true;
-            }
-        }
-        if (!changed) return;
+        if (n.tags == null || !containsIgnoreCase(n.tags, tag)) return;
         try {
-            store.updateNote(n, false);
+            Note updated = store.mutate(n.id, false, x -> {
+                List<String> tags = new ArrayList<String>(x.tags);
+                for (int i = tags.size() - 1; i >= 0; i--) {
+                    if (tag.equalsIgnoreCase(tags.get(i))) tags.remove(i);
+                }
+                x.setTags(tags);
+            });
             reloadFiltersAndList();
             selectByIdOrFirst(n.id);
-            rebuildTagChips(n);
+            rebuildTagChips(updated);
         } catch (IOException e) {
             statusLeft.setText("操作失败：" + e.getMessage());
         }
@@ -1189,6 +1851,10 @@ public final class StickyNoteApp {
     private void onExit() {
         saveIfDirty(false);
         saveWindowConfig();
+        if (apiServer != null) apiServer.stop();
+        if (notesWatcher != null) notesWatcher.stop();
+        if (!booting) firstScreen.write(FirstScreenCache.snapshot(store.sortedView()));
+        config.flush();
         frame.dispose();
         System.exit(0);
     }
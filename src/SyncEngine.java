@@ -0,0 +1,450 @@
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+public final class SyncEngine {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public enum Order { EQUAL, BEFORE, AFTER, CONCURRENT }
+
+    private final AppPaths paths;
+    private final NoteStore store;
+    private final Path notesDir;
+    private final Path logDir;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final Map<Note, String> hashes = new WeakHashMap<Note, String>();
+
+    public SyncEngine(AppPaths paths, NoteStore store, Path syncDir) {
+        this.paths = paths;
+        this.store = store;
+        this.notesDir = syncDir.resolve("notes");
+        this.logDir = syncDir.resolve("log");
+    }
+
+    public static final class Report {
+        public int pulled;
+        public int pushed;
+        public int merged;
+        public int conflicts;
+    }
+
+    public static final class Plan {
+        final State state;
+        final Map<String, Record> incoming;
+        final Map<String, Long> offsets;
+
+        Plan(State state, Map<String, Record> incoming, Map<String, Long> offsets) {
+            this.state = state;
+            this.incoming = incoming;
+            this.offsets = offsets;
+        }
+
+        public int incomingCount() {
+            return incoming.size();
+        }
+    }
+
+    static final class State {
+        String deviceId;
+        Map<String, Long> peers = new HashMap<String, Long>();
+        Map<String, Entry> notes = new HashMap<String, Entry>();
+    }
+
+    static final class Entry {
+        Map<String, Long> vv = new HashMap<String, Long>();
+        String hash;
+        String base;
+        boolean purged;
+    }
+
+    static final class Record {
+        String device;
+        Map<String, Long> vv;
+        boolean purged;
+        Note note;
+    }
+
+    public Report sync() throws IOException {
+        return apply(prepare(), new Executor() {
+            @Override public void execute(Runnable r) {
+                r.run();
+            }
+        });
+    }
+
+    public Plan prepare() throws IOException {
+        State state = loadState();
+        Files.createDirectories(notesDir);
+        Files.createDirectories(logDir);
+
+        Set<String> ids = new LinkedHashSet<String>();
+        Map<String, Long> offsets = new HashMap<String, Long>(state.peers);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(logDir, "*.log")) {
+            for (Path log : ds) {
+                String fn = log.getFileName().toString();
+                String peer = fn.substring(0, fn.length() - ".log".length());
+                if (peer.equals(state.deviceId)) continue;
+                Long from = offsets.get(peer);
+                offsets.put(peer, readLog(log, from == null ? 0L : from, ids));
+            }
+        }
+
+        Map<String, Record> incoming = new LinkedHashMap<String, Record>();
+        for (String id : ids) {
+            Record r = readRecord(id);
+            if (r != null) incoming.put(id, r);
+        }
+        return new Plan(state, incoming, offsets);
+    }
+
+    // Runs on a background thread; only the store update is handed to applyOn (the EDT in the app),
+    // and notes edited locally in the meantime are rebased by NoteStore.applyExternal.
+    public Report apply(Plan plan, Executor applyOn) throws IOException {
+        State state = plan.state;
+        String me = state.deviceId;
+        Report report = new Report();
+
+        Set<String> outgoing = new LinkedHashSet<String>();
+        NoteStore.Snapshot local = store.snapshot();
+        for (Note n : local.notes) {
+            Entry e = state.notes.get(n.id);
+            if (e == null) {
+                e = new Entry();
+                state.notes.put(n.id, e);
+            }
+            String h = stateHash(n);
+            if (!h.equals(e.hash) || e.purged) {
+                bump(e.vv, me);
+                e.hash = h;
+                e.purged = false;
+                outgoing.add(n.id);
+            }
+        }
+        for (Map.Entry<String, Entry> it : state.notes.entrySet()) {
+            Entry e = it.getValue();
+            if (e.purged || local.get(it.getKey()) != null) continue;
+            bump(e.vv, me);
+            e.purged = true;
+            e.hash = null;
+            outgoing.add(it.getKey());
+        }
+
+        List<Note> upserts = new ArrayList<Note>();
+        Set<String> removals = new LinkedHashSet<String>();
+        for (Map.Entry<String, Record> in : plan.incoming.entrySet()) {
+            String id = in.getKey();
+            Record r = in.getValue();
+            Entry e = state.notes.get(id);
+            if (e == null) {
+                e = new Entry();
+                state.notes.put(id, e);
+            }
+            Order order = compare(r.vv, e.vv);
+            if (order == Order.EQUAL || order == Order.BEFORE) continue;
+            report.pulled++;
+
+            if (order == Order.AFTER) {
+                e.vv = new HashMap<String, Long>(r.vv);
+                e.purged = r.purged;
+                if (r.purged) {
+                    e.hash = null;
+                    removals.add(id);
+                } else {
+                    e.hash = stateHash(r.note);
+                    e.base = contentHash(r.note.content);
+                    upserts.add(r.note);
+                }
+                outgoing.remove(id);
+                continue;
+            }
+
+            Note mine = local.get(id);
+            e.vv = max(e.vv, r.vv);
+            bump(e.vv, me);
+            outgoing.add(id);
+            if (r.purged) continue;
+            Note merged;
+            if (mine == null) {
+                merged = r.note;
+            } else {
+                TextMerge.Result m = TextMerge.merge(baseText(id, e.base), safe(mine.content), safe(r.note.content),
+                        "本机", r.device == null ? "其他设备" : r.device);
+                merged = mergeMeta(mine, r.note, m.text);
+                report.merged++;
+                report.conflicts += m.conflicts;
+            }
+            e.purged = false;
+            e.hash = stateHash(merged);
+            e.base = contentHash(merged.content);
+            upserts.add(merged);
+        }
+
+        for (Note n : upserts) store.recordHistory(n);
+        applyToStore(upserts, removals, local, applyOn);
+
+        NoteStore.Snapshot after = store.snapshot();
+        for (String id : outgoing) {
+            Entry e = state.notes.get(id);
+            Record r = new Record();
+            r.device = me;
+            r.vv = e.vv;
+            r.purged = e.purged;
+            if (!e.purged) {
+                r.note = after.get(id);
+                if (r.note == null) continue;
+            }
+            if (!push(id, r)) continue;
+            report.pushed++;
+            if (r.note != null) {
+                e.base = contentHash(r.note.content);
+                store.recordHistory(r.note);
+            }
+        }
+
+        state.peers = plan.offsets;
+        saveState(state);
+        return report;
+    }
+
+    private void applyToStore(final List<Note> upserts, final Set<String> removals, final NoteStore.Snapshot basis,
+                              Executor applyOn) throws IOException {
+        FutureTask<Void> f = new FutureTask<Void>(new Callable<Void>() {
+            @Override public Void call() throws IOException {
+                store.applyExternal(upserts, removals, basis);
+                return null;
+            }
+        });
+        applyOn.execute(f);
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sync interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            throw new IOException(c == null ? e.toString() : c.toString(), c);
+        }
+    }
+
+    // Ordering is decided by the version vectors alone. updatedAt comes from each device's wall
+    // clock and can be skewed, so it only breaks ties on metadata in mergeMeta.
+    public static Order compare(Map<String, Long> a, Map<String, Long> b) {
+        boolean less = false;
+        boolean greater = false;
+        Set<String> keys = new TreeSet<String>(a.keySet());
+        keys.addAll(b.keySet());
+        for (String k : keys) {
+            long x = counter(a, k);
+            long y = counter(b, k);
+            if (x < y) less = true;
+            else if (x > y) greater = true;
+        }
+        if (less && greater) return Order.CONCURRENT;
+        if (greater) return Order.AFTER;
+        if (less) return Order.BEFORE;
+        return Order.EQUAL;
+    }
+
+    private static Note mergeMeta(Note mine, Note theirs, String content) {
+        Note newer = theirs.updatedAt > mine.updatedAt ? theirs : mine;
+        Note n = new Note();
+        n.id = mine.id;
+        n.content = content;
+        Set<String> tags = new LinkedHashSet<String>(mine.tags);
+        if (theirs.tags != null) tags.addAll(theirs.tags);
+        n.tags = new ArrayList<String>(tags);
+        n.pinned = newer.pinned;
+        n.archived = newer.archived;
+        n.deleted = newer.deleted;
+        n.deletedAt = newer.deletedAt;
+        n.createdAt = Math.min(mine.createdAt, theirs.createdAt);
+        n.updatedAt = Math.max(System.currentTimeMillis(), Math.max(mine.updatedAt, theirs.updatedAt));
+        return n;
+    }
+
+    private String baseText(String id, String hash) {
+        if (hash == null) return "";
+        for (Path p : store.listHistoryFiles(id)) {
+            try {
+                String text = store.readHistoryFile(p);
+                if (text != null && hash.equals(contentHash(text))) return text;
+            } catch (IOException ignored) {}
+        }
+        return "";
+    }
+
+    private boolean push(String id, Record r) throws IOException {
+        Record existing = readRecord(id);
+        if (existing != null && compare(existing.vv, r.vv) != Order.BEFORE) return false;
+        Path file = recordFile(id);
+        Path tmp = notesDir.resolve(id + "." + r.device + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(r, w);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        byte[] line = (id + "\t" + counter(r.vv, r.device) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = Files.newOutputStream(logDir.resolve(r.device + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(line);
+        }
+        return true;
+    }
+
+    private long readLog(Path log, long from, Set<String> ids) throws IOException {
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (from > size) from = 0L;
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, size - from));
+            ch.position(from);
+            while (buf.hasRemaining() && ch.read(buf) >= 0) {}
+            byte[] bytes = buf.array();
+            int end = buf.position();
+            int lineStart = 0;
+            for (int i = 0; i < end; i++) {
+                if (bytes[i] != '\n') continue;
+                String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                int tab = line.indexOf('\t');
+                String id = tab < 0 ? line : line.substring(0, tab);
+                if (isSafeId(id)) ids.add(id);
+                lineStart = i + 1;
+            }
+            return from + lineStart;
+        }
+    }
+
+    private Record readRecord(String id) throws IOException {
+        Path file = recordFile(id);
+        if (!Files.exists(file)) return null;
+        try {
+            Record r = gson.fromJson(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), Record.class);
+            if (r == null || r.vv == null) return null;
+            if (r.note != null) {
+                if (!id.equals(r.note.id)) return null;
+                if (r.note.tags == null) r.note.tags = new ArrayList<String>();
+                if (r.note.deletedAt < 0L) r.note.deletedAt = 0L;
+            } else if (!r.purged) {
+                return null;
+            }
+            return r;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private Path recordFile(String id) {
+        return notesDir.resolve(id + ".json");
+    }
+
+    private State loadState() throws IOException {
+        State state = null;
+        if (Files.exists(paths.syncStateFile)) {
+            try {
+                state = gson.fromJson(new String(Files.readAllBytes(paths.syncStateFile), StandardCharsets.UTF_8), State.class);
+            } catch (JsonParseException e) {
+                throw new IOException("Corrupt sync state: " + paths.syncStateFile, e);
+            }
+        }
+        if (state == null) state = new State();
+        if (state.deviceId == null) state.deviceId = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+        if (state.peers == null) state.peers = new HashMap<String, Long>();
+        if (state.notes == null) state.notes = new HashMap<String, Entry>();
+        return state;
+    }
+
+    private void saveState(State state) throws IOException {
+        Files.createDirectories(paths.appDir);
+        Path tmp = paths.syncStateFile.resolveSibling("sync-state.json.tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(state, w);
+        }
+        Files.move(tmp, paths.syncStateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String stateHash(Note n) {
+        String h = hashes.get(n);
+        if (h == null) {
+            h = sha256(gson.toJson(n));
+            hashes.put(n, h);
+        }
+        return h;
+    }
+
+    private static String contentHash(String content) {
+        return sha256(safe(content));
+    }
+
+    private static boolean isSafeId(String id) {
+        if (id.isEmpty() || id.length() > 64) return false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != '-' && c != '_') return false;
+        }
+        return true;
+    }
+
+    private static void bump(Map<String, Long> vv, String device) {
+        vv.put(device, counter(vv, device) + 1);
+    }
+
+    private static long counter(Map<String, Long> vv, String device) {
+        Long v = vv.get(device);
+        return v == null ? 0L : v;
+    }
+
+    private static Map<String, Long> max(Map<String, Long> a, Map<String, Long> b) {
+        Map<String, Long> out = new HashMap<String, Long>(a);
+        for (Map.Entry<String, Long> e : b.entrySet()) {
+            if (counter(out, e.getKey()) < e.getValue()) out.put(e.getKey(), e.getValue());
+        }
+        return out;
+    }
+
+    private static String safe(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String sha256(String s) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = md.digest(s.getBytes(StandardCharsets.UTF_8));
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class TextMerge {
+    private static final long MAX_TABLE_CELLS = 4_000_000L;
+
+    public static final class Result {
+        public final String text;
+        public final int conflicts;
+
+        Result(String text, int conflicts) {
+            this.text = text;
+            this.conflicts = conflicts;
+        }
+    }
+
+    private static final class Hunk {
+        final int start;
+        final int end;
+        final List<String> lines;
+
+        Hunk(int start, int end, List<String> lines) {
+            this.start = start;
+            this.end = end;
+            this.lines = lines;
+        }
+    }
+
+    private TextMerge() {}
+
+    public static Result merge(String base, String ours, String theirs, String oursLabel, String theirsLabel) {
+        if (ours.equals(theirs)) return new Result(ours, 0);
+        if (base.equals(ours)) return new Result(theirs, 0);
+        if (base.equals(theirs)) return new Result(ours, 0);
+
+        List<String> b = lines(base);
+        List<String> o = lines(ours);
+        List<String> t = lines(theirs);
+        List<Hunk> ho = diff(b, o);
+        List<Hunk> ht = diff(b, t);
+
+        List<String> out = new ArrayList<String>();
+        int conflicts = 0;
+        int pos = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ho.size() || j < ht.size()) {
+            boolean takeOurs = j >= ht.size() || (i < ho.size() && ho.get(i).start <= ht.get(j).start);
+            int start = takeOurs ? ho.get(i).start : ht.get(j).start;
+            int end = start;
+            int i0 = i;
+            int j0 = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                while (i < ho.size() && overlaps(ho.get(i), start, end, i == i0 && takeOurs)) {
+                    end = Math.max(end, ho.get(i++).end);
+                    grew = true;
+                }
+                while (j < ht.size() && overlaps(ht.get(j), start, end, j == j0 && !takeOurs)) {
+                    end = Math.max(end, ht.get(j++).end);
+                    grew = true;
+                }
+            }
+            out.addAll(b.subList(pos, start));
+            pos = end;
+            if (j == j0) {
+                out.addAll(apply(b, start, end, ho.subList(i0, i)));
+            } else if (i == i0) {
+                out.addAll(apply(b, start, end, ht.subList(j0, j)));
+            } else {
+                List<String> a = apply(b, start, end, ho.subList(i0, i));
+                List<String> c = apply(b, start, end, ht.subList(j0, j));
+                if (a.equals(c)) {
+                    out.addAll(a);
+                } else {
+                    conflicts++;
+                    out.add("<<<<<<< " + oursLabel);
+                    out.addAll(a);
+                    out.add("=======");
+                    out.addAll(c);
+                    out.add(">>>>>>> " + theirsLabel);
+                }
+            }
+        }
+        out.addAll(b.subList(pos, b.size()));
+        return new Result(String.join("\n", out), conflicts);
+    }
+
+    private static boolean overlaps(Hunk h, int start, int end, boolean first) {
+        if (first) return true;
+        if (h.start < end) return true;
+        return h.start == end && (h.start == h.end || start == end);
+    }
+
+    private static List<String> apply(List<String> base, int start, int end, List<Hunk> hunks) {
+        List<String> out = new ArrayList<String>();
+        int pos = start;
+        for (Hunk h : hunks) {
+            out.addAll(base.subList(pos, h.start));
+            out.addAll(h.lines);
+            pos = h.end;
+        }
+        out.addAll(base.subList(pos, end));
+        return out;
+    }
+
+    private static List<Hunk> diff(List<String> a, List<String> b) {
+        int prefix = 0;
+        while (prefix < a.size() && prefix < b.size() && a.get(prefix).equals(b.get(prefix))) prefix++;
+        int suffix = 0;
+        while (suffix < a.size() - prefix && suffix < b.size() - prefix
+                && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) suffix++;
+        int n = a.size() - prefix - suffix;
+        int m = b.size() - prefix - suffix;
+
+        List<Hunk> hunks = new ArrayList<Hunk>();
+        if (n == 0 && m == 0) return hunks;
+        if (n == 0 || m == 0 || (long) (n + 1) * (m + 1) > MAX_TABLE_CELLS) {
+            hunks.add(new Hunk(prefix, prefix + n, new ArrayList<String>(b.subList(prefix, prefix + m))));
+            return hunks;
+        }
+
+        int[][] lcs = new int[n + 1][m + 1];
+        for (int x = n - 1; x >= 0; x--) {
+            for (int y = m - 1; y >= 0; y--) {
+                lcs[x][y] = a.get(prefix + x).equals(b.get(prefix + y))
+                        ? lcs[x + 1][y + 1] + 1
+                        : Math.max(lcs[x + 1][y], lcs[x][y + 1]);
+            }
+        }
+        int x = 0;
+        int y = 0;
+        int hx = -1;
+        int hy = -1;
+        while (x < n || y < m) {
+            if (x < n && y < m && a.get(prefix + x).equals(b.get(prefix + y))) {
+                if (hx >= 0) {
+                    hunks.add(new Hunk(prefix + hx, prefix + x, new ArrayList<String>(b.subList(prefix + hy, prefix + y))));
+                    hx = -1;
+                }
+                x++;
+                y++;
+                continue;
+            }
+            if (hx < 0) {
+                hx = x;
+                hy = y;
+            }
+            if (y >= m || (x < n && lcs[x + 1][y] >= lcs[x][y + 1])) x++;
+            else y++;
+        }
+        if (hx >= 0) hunks.add(new Hunk(prefix + hx, prefix + n, new ArrayList<String>(b.subList(prefix + hy, prefix + m))));
+        return hunks;
+    }
+
+    private static List<String> lines(String s) {
+        return Arrays.asList(s.split("\n", -1));
+    }
+}
@@ -0,0 +1,168 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+
+public final class TextStats implements DocumentListener {
+    private final Segment segment = new Segment();
+    private Document doc;
+    private Runnable onChange;
+    private int[] lineWords = new int[64];
+    private int[] lineChars = new int[64];
+    private int lines = 0;
+    private int words = 0;
+    private int chars = 0;
+
+    public void attach(JTextComponent editor, Runnable onChange) {
+        this.onChange = onChange;
+        editor.addPropertyChangeListener("document", evt -> setDocument((Document) evt.getNewValue()));
+        setDocument(editor.getDocument());
+    }
+
+    public int words() {
+        return words;
+    }
+
+    public int chars() {
+        return chars;
+    }
+
+    @Override public void insertUpdate(DocumentEvent e) { update(e); }
+    @Override public void removeUpdate(DocumentEvent e) { update(e); }
+    @Override public void changedUpdate(DocumentEvent e) {}
+
+    private void setDocument(Document next) {
+        if (doc != null) doc.removeDocumentListener(this);
+        doc = next;
+        lines = 0;
+        words = 0;
+        chars = 0;
+        if (doc != null) {
+            doc.addDocumentListener(this);
+            Element root = doc.getDefaultRootElement();
+            replaceLines(0, 0, root.getElementCount());
+        }
+        fire();
+    }
+
+    private void update(DocumentEvent e) {
+        Element root = doc.getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change == null) {
+            int line = root.getElementIndex(e.getOffset());
+            replaceLines(line, 1, 1);
+        } else {
+            replaceLines(change.getIndex(), change.getChildrenRemoved().length, change.getChildrenAdded().length);
+        }
+        fire();
+    }
+
+    private void replaceLines(int index, int removed, int added) {
+        for (int i = index; i < index + removed; i++) {
+            words -= lineWords[i];
+            chars -= lineChars[i];
+        }
+        int tail = lines - index - removed;
+        int nextLines = lines - removed + added;
+        if (nextLines > lineWords.length) {
+            int cap = Math.max(nextLines, lineWords.length * 2);
+            lineWords = grow(lineWords, cap);
+            lineChars = grow(lineChars, cap);
+        }
+        if (removed != added && tail > 0) {
+            System.arraycopy(lineWords, index + removed, lineWords, index + added, tail);
+            System.arraycopy(lineChars, index + removed, lineChars, index + added, tail);
+        }
+        lines = nextLines;
+
+        Element root = doc.getDefaultRootElement();
+        for (int i = index; i < index + added; i++) {
+            countLine(root.getElement(i), i);
+            words += lineWords[i];
+            chars += lineChars[i];
+        }
+    }
+
+    private void countLine(Element line, int i) {
+        int start = line.getStartOffset();
+        int end = Math.min(line.getEndOffset(), doc.getLength());
+        int w = 0;
+        int c = 0;
+        if (end > start) {
+            try {
+                doc.getText(start, end - start, segment);
+            } catch (BadLocationException e) {
+                lineWords[i] = 0;
+                lineChars[i] = 0;
+                return;
+            }
+            boolean inWord = false;
+            int p = segment.offset;
+            int limit = segment.offset + segment.count;
+            while (p < limit) {
+                char ch = segment.array[p];
+                int cp = ch;
+                int n = 1;
+                if (Character.isHighSurrogate(ch) && p + 1 < limit && Character.isLowSurrogate(segment.array[p + 1])) {
+                    cp = Character.toCodePoint(ch, segment.array[p + 1]);
+                    n = 2;
+                }
+                p += n;
+                if (cp == '\n' || cp == '\r') {
+                    inWord = false;
+                    continue;
+                }
+                c++;
+                if (Character.isWhitespace(cp) || Character.isSpaceChar(cp) || isWidePunctuation(cp)) {
+                    inWord = false;
+                } else if (isCjk(cp)) {
+                    w++;
+                    inWord = false;
+                } else if (!inWord) {
+                    w++;
+                    inWord = true;
+                }
+            }
+        }
+        lineWords[i] = w;
+        lineChars[i] = c;
+    }
+
+    private static boolean isCjk(int cp) {
+        if (cp < 0x2e80) return false;
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static boolean isWidePunctuation(int cp) {
+        if (cp < 0x3000) return false;
+        switch (Character.getType(cp)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int[] grow(int[] a, int cap) {
+        int[] b = new int[cap];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    private void fire() {
+        if (onChange != null) onChange.run();
+    }
+}